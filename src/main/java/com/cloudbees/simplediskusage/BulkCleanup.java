@@ -0,0 +1,296 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.tasks.LogRotator;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.BuildDiscarder;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies the build discarder of many jobs at once, a bounded number of jobs at a time.
+ *
+ * What each job would reclaim is estimated beforehand from the {@link DirectoryIndex} only: the builds and
+ * artifacts its {@link LogRotator} would delete, going by the build numbers and directory modification times
+ * recorded by the last scan. Builds kept as last successful or last stable are left out, builds kept forever
+ * are not known without loading them, so the estimate is an upper bound.
+ */
+final class BulkCleanup {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Cleans a job up.
+     */
+    interface Cleaner {
+        /**
+         * @return the usage reclaimed in KiB
+         */
+        long clean(Candidate candidate) throws Exception;
+    }
+
+    /**
+     * A job selected for the cleanup, with the usage its build discarder would reclaim.
+     */
+    static final class Candidate {
+        final Job<?, ?> job;
+        final long usage;
+        final long reclaimable;
+        final long reclaimableCount;
+        final int builds;
+
+        /**
+         * @param usage usage of the job in KiB
+         * @param estimate see {@link #estimate(Job, DirectoryIndex, long)}
+         */
+        Candidate(Job<?, ?> job, long usage, long[] estimate) {
+            this.job = job;
+            this.usage = usage;
+            this.reclaimable = estimate[0] / 1024;
+            this.reclaimableCount = estimate[1];
+            this.builds = (int) estimate[2];
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("fullName", job.getFullName());
+            json.put("url", job.getUrl());
+            json.put("usageKB", usage);
+            json.put("reclaimableKB", reclaimable);
+            json.put("reclaimableCount", reclaimableCount);
+            json.put("builds", builds);
+            return json;
+        }
+    }
+
+    private final List<Candidate> candidates;
+
+    private final long start = System.currentTimeMillis();
+
+    private final AtomicInteger completed = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private final AtomicLong reclaimed = new AtomicLong();
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    BulkCleanup(List<Candidate> candidates) {
+        this.candidates = candidates;
+    }
+
+    /**
+     * Estimates what the build discarder of a job would delete.
+     *
+     * @param now current time
+     * @return usage in bytes, file count and number of builds deleted, only counting the builds and artifacts
+     *         known by the index
+     */
+    static long[] estimate(Job<?, ?> job, DirectoryIndex index, long now) {
+        long[] estimate = new long[3];
+        BuildDiscarder discarder = job.getBuildDiscarder();
+        if (!(discarder instanceof LogRotator)) {
+            // nothing to delete, or unknown rules
+            return estimate;
+        }
+        LogRotator rotator = (LogRotator) discarder;
+        Path buildsDir = job.getBuildDir().toPath().toAbsolutePath();
+        List<Integer> numbers = new ArrayList<>();
+        for (String name : listBuilds(buildsDir, index)) {
+            try {
+                numbers.add(Integer.parseInt(name));
+            } catch (NumberFormatException e) {
+                // not a build
+            }
+        }
+        numbers.sort((a, b) -> Integer.compare(b, a));
+        int lastSuccessful = getNumber(job.getLastSuccessfulBuild());
+        int lastStable = getNumber(job.getLastStableBuild());
+        for (int i = 0; i < numbers.size(); i++) {
+            int number = numbers.get(i);
+            if (number == lastSuccessful || number == lastStable) {
+                continue;
+            }
+            Path buildDir = buildsDir.resolve(Integer.toString(number));
+            DirectoryIndex.Entry build = index.get(buildDir);
+            if (build == null) {
+                continue;
+            }
+            if (isDiscarded(i, build.mtime, rotator.getNumToKeep(), rotator.getDaysToKeep(), now)) {
+                estimate[0] += build.getUsage();
+                estimate[1] += build.getCount();
+                estimate[2]++;
+                continue;
+            }
+            if (!isDiscarded(i, build.mtime, rotator.getArtifactNumToKeep(), rotator.getArtifactDaysToKeep(), now)) {
+                continue;
+            }
+            // the archive is only indexed on its own when scanning incrementally, the build categories have it
+            long[] categories = build.categories;
+            DirectoryIndex.Entry archive = index.get(buildDir.resolve("archive"));
+            if (categories != null) {
+                estimate[0] += categories[2 * UsageCategory.ARCHIVE.ordinal()];
+                estimate[1] += categories[2 * UsageCategory.ARCHIVE.ordinal() + 1];
+            } else if (archive != null) {
+                estimate[0] += archive.getUsage();
+                estimate[1] += archive.getCount();
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * Names of the build directories, only indexed when scanning incrementally otherwise.
+     */
+    private static List<String> listBuilds(Path buildsDir, DirectoryIndex index) {
+        DirectoryIndex.Entry builds = index.get(buildsDir);
+        if (builds != null) {
+            return Arrays.asList(builds.directories);
+        }
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(buildsDir, Files::isDirectory)) {
+            for (Path build : stream) {
+                names.add(build.getFileName().toString());
+            }
+        } catch (IOException e) {
+            // no builds yet
+        }
+        return names;
+    }
+
+    /**
+     * @param position position of the build, the most recent first
+     * @param time approximate time of the build
+     * @param numToKeep number of builds to keep, -1 for all
+     * @param daysToKeep number of days to keep builds, -1 for ever
+     */
+    private static boolean isDiscarded(int position, long time, int numToKeep, int daysToKeep, long now) {
+        return numToKeep != -1 && position >= numToKeep || daysToKeep != -1 && time < now - daysToKeep * DAY;
+    }
+
+    private static int getNumber(Run<?, ?> run) {
+        return run != null ? run.getNumber() : -1;
+    }
+
+    /**
+     * Cleans the jobs up on a new pool of the given number of threads, which is shut down once they are all done.
+     */
+    void start(int concurrency, Cleaner cleaner) {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency,
+                new NamingThreadFactory(Executors.defaultThreadFactory(), "Simple disk usage cleanup"));
+        for (Candidate candidate : candidates) {
+            pool.execute(() -> {
+                if (cancelled.get()) {
+                    skipped.incrementAndGet();
+                    return;
+                }
+                try {
+                    reclaimed.addAndGet(cleaner.clean(candidate));
+                    completed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    failed.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Failed to clean up " + candidate.job.getFullName(), e);
+                    failed.incrementAndGet();
+                }
+            });
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Skips the jobs not cleaned up yet, those being cleaned up are completed.
+     */
+    void cancel() {
+        cancelled.set(true);
+    }
+
+    boolean isRunning() {
+        return completed.get() + failed.get() + skipped.get() < candidates.size();
+    }
+
+    /**
+     * @return the candidates and totals of an estimate
+     */
+    static JSONObject toJSON(List<Candidate> candidates) {
+        JSONArray jobs = new JSONArray();
+        long reclaimable = 0;
+        long reclaimableCount = 0;
+        for (Candidate candidate : candidates) {
+            jobs.add(candidate.toJSON());
+            reclaimable += candidate.reclaimable;
+            reclaimableCount += candidate.reclaimableCount;
+        }
+        JSONObject json = new JSONObject();
+        json.put("jobs", jobs);
+        json.put("reclaimableKB", reclaimable);
+        json.put("reclaimableCount", reclaimableCount);
+        return json;
+    }
+
+    /**
+     * @return the progress of this cleanup
+     */
+    JSONObject toJSON() {
+        long estimated = 0;
+        for (Candidate candidate : candidates) {
+            estimated += candidate.reclaimable;
+        }
+        JSONObject json = new JSONObject();
+        json.put("start", start);
+        json.put("running", isRunning());
+        json.put("cancelled", cancelled.get());
+        json.put("total", candidates.size());
+        json.put("completed", completed.get());
+        json.put("failed", failed.get());
+        json.put("skipped", skipped.get());
+        json.put("estimatedKB", estimated);
+        json.put("reclaimedKB", reclaimed.get());
+        return json;
+    }
+
+    private static final Logger logger = Logger.getLogger(BulkCleanup.class.getName());
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent index of the directories seen by the last scans, with their modification time
+ * and usage, so an incremental scan can skip reading directories which didn't change.
+ *
+ * A directory modification time only changes when entries are added, removed or renamed,
+ * not when an existing file grows. Entries are then only trusted for a limited time, after
+ * which the directory content is read again.
+ *
+ * Sealed entries are directories whose content is not expected to change anymore, like
+ * completed builds: their whole subtree usage is reused as long as their own modification
+ * time doesn't change.
+ */
+public final class DirectoryIndex {
+
+    private static final int MAGIC = 0x53445549; // SDUI
+
+    private static final int VERSION = 2;
+
+    private static final String[] NO_DIRECTORIES = new String[0];
+
+    /**
+     * Directories modified that close to the time they were read may have changed in the same
+     * modification time granularity, we can't trust them.
+     */
+    private static final long MTIME_GRANULARITY = 2000;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Usage information of a single directory.
+     */
+    public static final class Entry {
+        final long mtime;
+        final long verified;
+        final long filesUsage;
+        final long filesCount;
+        /**
+         * Usage and file count per {@link UsageCategory} then per {@link UsageAge} of the files directly in this
+         * directory, as of when it was read, null if the scan wasn't categorized.
+         */
+        final long[] filesCategories;
+        final String[] directories;
+        final boolean sealed;
+        /**
+         * Name and size of the largest file directly in this directory, null if it has no file.
+         */
+        final String largestFile;
+        final long largestFileUsage;
+        volatile long usage;
+        volatile long count;
+        /**
+         * Usage and file count per {@link UsageCategory} then per {@link UsageAge} of the whole directory tree,
+         * as of when this directory was read, null if the last scan wasn't categorized or didn't read it.
+         */
+        volatile long[] categories;
+        /**
+         * Path relative to this directory and size of the largest file of the whole directory tree, so it can be
+         * ranked when the tree is reused, only for sealed directories, null if unknown.
+         */
+        volatile String subtreeLargestFile;
+        volatile long subtreeLargestFileUsage;
+        volatile long seen;
+
+        Entry(long mtime, long verified, long filesUsage, long filesCount, long[] filesCategories,
+              String[] directories, boolean sealed, String largestFile, long largestFileUsage) {
+            this.mtime = mtime;
+            this.verified = verified;
+            this.filesUsage = filesUsage;
+            this.filesCount = filesCount;
+            this.filesCategories = filesCategories;
+            this.directories = directories.length == 0 ? NO_DIRECTORIES : directories;
+            this.sealed = sealed;
+            this.largestFile = largestFile;
+            this.largestFileUsage = largestFileUsage;
+            this.seen = verified;
+        }
+
+        /**
+         * @param mtime current modification time of the directory
+         * @param now current time
+         * @param maxAge maximum time since the directory content was last read
+         * @return true if the directory content can be reused instead of read again
+         */
+        boolean isValid(long mtime, long now, long maxAge) {
+            return this.mtime == mtime
+                    && this.mtime < verified - MTIME_GRANULARITY
+                    && now - verified < maxAge;
+        }
+
+        /**
+         * @return true if the whole subtree usage can be reused, see {@link #isValid(long, long, long)}
+         */
+        boolean isSubtreeValid(long mtime, long now, long maxAge) {
+            return sealed && isValid(mtime, now, maxAge);
+        }
+
+        /**
+         * @return true if this directory content is not expected to change anymore
+         */
+        public boolean isSealed() {
+            return sealed;
+        }
+
+        /**
+         * @return size of the files directly in this directory
+         */
+        public long getFilesUsage() {
+            return filesUsage;
+        }
+
+        /**
+         * @return number of files directly in this directory
+         */
+        public long getFilesCount() {
+            return filesCount;
+        }
+
+        /**
+         * @return size of the whole directory tree, as of the last scan
+         */
+        public long getUsage() {
+            return usage;
+        }
+
+        /**
+         * @return number of files in the whole directory tree, as of the last scan
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+
+    Entry get(Path dir) {
+        return entries.get(dir.toString());
+    }
+
+    void put(Path dir, Entry entry) {
+        entries.put(dir.toString(), entry);
+    }
+
+    void remove(Path dir) {
+        entries.remove(dir.toString());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forget the directories which were not seen by a scan since the given time.
+     */
+    public void retainSeenSince(long time) {
+        entries.values().removeIf(entry -> entry.seen < time);
+    }
+
+    public static DirectoryIndex load(File file) {
+        DirectoryIndex index = new DirectoryIndex();
+        try (InputStream in = Files.newInputStream(file.toPath());
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            int version = data.readInt() == MAGIC ? data.readInt() : -1;
+            if (version != VERSION) {
+                logger.log(Level.INFO, "Ignoring directory index with unknown format {0}", file);
+                return index;
+            }
+            int size = data.readInt();
+            for (int i = 0; i < size; i++) {
+                String path = data.readUTF();
+                long mtime = data.readLong();
+                long verified = data.readLong();
+                long filesUsage = data.readLong();
+                long filesCount = data.readLong();
+                long[] filesCategories = readCategories(data);
+                String[] directories = new String[data.readInt()];
+                for (int j = 0; j < directories.length; j++) {
+                    directories[j] = data.readUTF();
+                }
+                boolean sealed = data.readBoolean();
+                String largestFile = readName(data);
+                Entry entry = new Entry(mtime, verified, filesUsage, filesCount, filesCategories, directories, sealed,
+                        largestFile, data.readLong());
+                entry.usage = data.readLong();
+                entry.count = data.readLong();
+                entry.categories = readCategories(data);
+                entry.subtreeLargestFile = readName(data);
+                entry.subtreeLargestFileUsage = data.readLong();
+                index.entries.put(path, entry);
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to load directory index " + file + ", starting from scratch", e);
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /**
+     * Writes the index to a temporary file which then replaces the previous index.
+     */
+    public void save(File file) throws IOException {
+        DataFiles.write(file, MAGIC, VERSION, data -> {
+            // take a snapshot, the map may be updated concurrently
+            Map<String, Entry> snapshot = Map.copyOf(entries);
+            data.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                Entry entry = e.getValue();
+                data.writeUTF(e.getKey());
+                data.writeLong(entry.mtime);
+                data.writeLong(entry.verified);
+                data.writeLong(entry.filesUsage);
+                data.writeLong(entry.filesCount);
+                writeCategories(data, entry.filesCategories);
+                data.writeInt(entry.directories.length);
+                for (String directory : entry.directories) {
+                    data.writeUTF(directory);
+                }
+                data.writeBoolean(entry.sealed);
+                writeName(data, entry.largestFile);
+                data.writeLong(entry.largestFileUsage);
+                data.writeLong(entry.usage);
+                data.writeLong(entry.count);
+                writeCategories(data, entry.categories);
+                // read once, it may be updated concurrently
+                String subtreeLargestFile = entry.subtreeLargestFile;
+                writeName(data, subtreeLargestFile);
+                data.writeLong(subtreeLargestFile != null ? entry.subtreeLargestFileUsage : 0);
+            }
+        });
+    }
+
+    /**
+     * @return a file name or relative path, null if none
+     */
+    private static String readName(DataInputStream data) throws IOException {
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+
+    private static void writeName(DataOutputStream data, String name) throws IOException {
+        data.writeBoolean(name != null);
+        if (name != null) {
+            data.writeUTF(name);
+        }
+    }
+
+    private static long[] readCategories(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0) {
+            return null;
+        }
+        long[] categories = new long[length];
+        for (int i = 0; i < length; i++) {
+            categories[i] = data.readLong();
+        }
+        // categories or ages added since the index was written are unknown
+        return length == UsageCategory.VECTOR_WIDTH ? categories : null;
+    }
+
+    private static void writeCategories(DataOutputStream data, long[] categories) throws IOException {
+        if (categories == null) {
+            data.writeInt(-1);
+            return;
+        }
+        data.writeInt(categories.length);
+        for (long value : categories) {
+            data.writeLong(value);
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(DirectoryIndex.class.getName());
+}
@@ -28,6 +28,8 @@ import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -42,12 +44,21 @@ public class DiskItem implements Comparable<DiskItem> {
     private final File path;
     private final Long usage;
     private final Long count;
+    /**
+     * Usage in KiB then file count of each {@link UsageAge}, null if unknown.
+     */
+    private final long[] ages;
 
     public DiskItem(String displayName, File path, Long usage, Long count) {
+        this(displayName, path, usage, count, null);
+    }
+
+    DiskItem(String displayName, File path, Long usage, Long count, long[] ages) {
         this.displayName = displayName;
         this.path = path;
         this.usage = usage;
         this.count = count;
+        this.ages = ages;
     }
     
     @Deprecated
@@ -55,6 +66,29 @@ public class DiskItem implements Comparable<DiskItem> {
         this(displayName, path, usage, 0L);
     }
 
+    /**
+     * The ages are kept as is until the next walk.
+     *
+     * @return a copy of this item with another usage
+     */
+    DiskItem withUsage(Long usage, Long count) {
+        return new DiskItem(displayName, path, usage, count, ages);
+    }
+
+    /**
+     * @return a copy of this item with other ages
+     */
+    DiskItem withAges(long[] ages) {
+        return new DiskItem(displayName, path, usage, count, ages);
+    }
+
+    /**
+     * @return usage in KiB then file count of each {@link UsageAge}, or null if unknown
+     */
+    long[] getAgeUsages() {
+        return ages;
+    }
+
     public File getPath() {
         return path;
     }
@@ -89,6 +123,56 @@ public class DiskItem implements Comparable<DiskItem> {
     }
 
     public String getUsageFormatted() {
+        return formatUsage(usage);
+    }
+
+    /**
+     * @return usage of the files last modified in each {@link UsageAge}, or an empty list if unknown
+     */
+    @Exported
+    public List<AgeUsage> getAges() {
+        if (ages == null) {
+            return List.of();
+        }
+        List<AgeUsage> result = new ArrayList<>(ages.length / 2);
+        for (UsageAge age : UsageAge.values()) {
+            result.add(new AgeUsage(age.getName(), ages[2 * age.ordinal()], ages[2 * age.ordinal() + 1]));
+        }
+        return result;
+    }
+
+    /**
+     * @return usage in KiB of the files not modified within the given age, 0 if unknown
+     */
+    public long getColdUsage(UsageAge age) {
+        return coldTotal(age, 0);
+    }
+
+    public String getColdUsageFormatted(UsageAge age) {
+        return formatUsage(getColdUsage(age));
+    }
+
+    /**
+     * @return number of files not modified within the given age, 0 if unknown
+     */
+    public long getColdCount(UsageAge age) {
+        return coldTotal(age, 1);
+    }
+
+    private long coldTotal(UsageAge age, int column) {
+        long total = 0;
+        if (ages != null) {
+            for (int i = age.ordinal() + 1; i < ages.length / 2; i++) {
+                total += ages[2 * i + column];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param usage usage in KiB
+     */
+    static String formatUsage(long usage) {
         String measure = "KiB";
         if (usage < 1024) {
             return usage + " " + measure;
@@ -108,6 +192,41 @@ public class DiskItem implements Comparable<DiskItem> {
         return format.format(number) + " " + measure;
     }
 
+    /**
+     * Usage of the files of an item last modified in an age bucket.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class AgeUsage {
+        private final String name;
+        private final long usage;
+        private final long count;
+
+        AgeUsage(String name, long usage, long count) {
+            this.name = name;
+            this.usage = usage;
+            this.count = count;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported(name = "usageKB")
+        public long getUsage() {
+            return usage;
+        }
+
+        @Exported
+        public long getCount() {
+            return count;
+        }
+
+        public String getUsageFormatted() {
+            return DiskItem.formatUsage(usage);
+        }
+    }
+
     @Override
     public int compareTo(DiskItem o) {
         return Objects.compare(
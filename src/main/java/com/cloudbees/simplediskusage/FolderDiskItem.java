@@ -0,0 +1,52 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+
+import java.io.File;
+
+/**
+ * A folder, multibranch project or organization directory with the usage of its whole subtree,
+ * including the jobs and folders it contains.
+ */
+public class FolderDiskItem extends JobDiskItem {
+
+    /**
+     * @param folder an {@link ItemGroup}
+     */
+    public FolderDiskItem(Item folder, Long size, Long count) {
+        super(folder.getFullDisplayName(), folder.getRootDir(), size, count, folder.getFullName(), folder.getUrl());
+    }
+
+    FolderDiskItem(String displayName, File path, Long size, Long count, String fullName, String url) {
+        super(displayName, path, size, count, fullName, url);
+    }
+
+    @Override
+    FolderDiskItem withUsage(Long size, Long count) {
+        return new FolderDiskItem(getDisplayName(), getPath(), size, count, getFullName(), getUrl());
+    }
+}
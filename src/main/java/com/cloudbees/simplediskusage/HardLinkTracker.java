@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the space used by files on the disk rather than their apparent size.
+ *
+ * Files with several hard links are only counted for the first link seen during a scan, whichever
+ * job or directory it belongs to. Sizes are rounded up to the block size of their file store.
+ * The JDK doesn't expose the number of allocated blocks, so sparse files still count for their apparent size.
+ * Files no larger than a block are not checked for links: they are counted for one block each, the
+ * error is at most one block per extra link and saves reading the attributes of most files.
+ *
+ * Needs the {@code unix} file attribute view, sizes are returned unchanged on other platforms.
+ * A tracker is shared by all the walkers of a scan.
+ */
+final class HardLinkTracker {
+
+    private static final boolean SUPPORTED = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private static final long DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * Inodes with several links seen so far, for each device.
+     */
+    private final Map<Long, LongHashSet> inodes = new HashMap<>();
+
+    private final Map<Long, Long> blockSizes = new HashMap<>();
+
+    /**
+     * Tracker of a completed scan whose links are already counted, or null.
+     */
+    private final HardLinkTracker seen;
+
+    /**
+     * Block size of the last file store seen, to round the files that are not checked for links.
+     */
+    private volatile long lastBlockSize = DEFAULT_BLOCK_SIZE;
+
+    HardLinkTracker() {
+        this(null);
+    }
+
+    /**
+     * @param seen tracker of a completed scan, the links it counted are not counted again
+     */
+    HardLinkTracker(HardLinkTracker seen) {
+        this.seen = seen;
+    }
+
+    static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * @param file a file, not a directory
+     * @param attrs the file attributes
+     * @return the space used by the file, 0 if another link to the same file was already counted
+     */
+    long usage(Path file, BasicFileAttributes attrs) {
+        if (!SUPPORTED) {
+            return attrs.size();
+        }
+        long size = attrs.size();
+        long lastBlockSize = this.lastBlockSize;
+        if (size <= lastBlockSize) {
+            return size == 0 ? 0 : lastBlockSize;
+        }
+        Map<String, Object> unix;
+        try {
+            unix = Files.readAttributes(file, "unix:dev,ino,nlink", LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException e) {
+            return attrs.size();
+        }
+        long dev = (Long) unix.get("dev");
+        long blockSize;
+        synchronized (this) {
+            if ((Integer) unix.get("nlink") > 1) {
+                long ino = (Long) unix.get("ino");
+                if (seen != null && seen.isCounted(dev, ino)
+                        || !inodes.computeIfAbsent(dev, d -> new LongHashSet()).add(ino)) {
+                    return 0;
+                }
+            }
+            blockSize = blockSizes.computeIfAbsent(dev, d -> getBlockSize(file));
+        }
+        this.lastBlockSize = blockSize;
+        return (size + blockSize - 1) / blockSize * blockSize;
+    }
+
+    private synchronized boolean isCounted(long dev, long ino) {
+        LongHashSet counted = inodes.get(dev);
+        return counted != null && counted.contains(ino);
+    }
+
+    private static long getBlockSize(Path file) {
+        try {
+            long blockSize = Files.getFileStore(file).getBlockSize();
+            return blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.log(Level.FINE, "Unable to get the block size of " + file, e);
+            return DEFAULT_BLOCK_SIZE;
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(HardLinkTracker.class.getName());
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throttles the disk walk to prevent IO starvation for other Jenkins tasks.
+ *
+ * A single instance is shared by every thread walking the disk, so a parallel walk is
+ * throttled as a whole. Walkers call {@link #pause(long, long)} after each directory.
+ */
+abstract class IoThrottle {
+
+    /**
+     * Called by walkers after each directory, may block to slow the walk down.
+     *
+     * @param entries number of files and directories statted since the previous call of this walker
+     * @param busyNanos time spent by this walker since its previous call
+     * @return false if the calling thread was interrupted while paused
+     */
+    abstract boolean pause(long entries, long busyNanos);
+
+    /**
+     * @return current limit in entries per second, or -1 if not limited by rate
+     */
+    double getRate() {
+        return -1;
+    }
+
+    static boolean sleep(long nanos) {
+        if (nanos <= 0) {
+            return true;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Only consumes at most half of the available IO bandwidth: once the walkers were busy for more
+     * than 100ms in total, all of them sleep until the walk lasted twice that. The busy time of the
+     * walkers is summed, so a parallel walk is given the same budget as a sequential one.
+     */
+    static class DutyCycle extends IoThrottle {
+        private static final long CHUNK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        private long chunkStartTime = System.nanoTime();
+
+        // busy time of all the walkers since the chunk start
+        private long busyNanos;
+
+        private long pauseUntil = chunkStartTime;
+
+        @Override
+        boolean pause(long entries, long busyNanos) {
+            long sleepUntil;
+            synchronized (this) {
+                this.busyNanos += busyNanos;
+                long now = System.nanoTime();
+                if (now - pauseUntil >= 0 && this.busyNanos > CHUNK_NANOS) {
+                    // when the walkers were mostly idle, the chunk already lasted long enough
+                    pauseUntil = Math.max(now, chunkStartTime + 2 * this.busyNanos);
+                    chunkStartTime = pauseUntil;
+                    this.busyNanos = 0;
+                }
+                sleepUntil = pauseUntil;
+            }
+            return sleep(sleepUntil - System.nanoTime());
+        }
+    }
+
+    /**
+     * Limits the walk to a number of files and directories per second, allowing bursts of one second.
+     */
+    static class TokenBucket extends IoThrottle {
+        protected double rate;
+
+        private double tokens;
+
+        private long last = System.nanoTime();
+
+        TokenBucket(double rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        @Override
+        boolean pause(long entries, long busyNanos) {
+            long sleepNanos;
+            synchronized (this) {
+                adjust(entries, busyNanos);
+                long now = System.nanoTime();
+                tokens = Math.min(rate, tokens + (now - last) * rate / TimeUnit.SECONDS.toNanos(1));
+                last = now;
+                tokens -= entries;
+                // a negative balance is paid by sleeping, so concurrent walkers queue up behind each other
+                sleepNanos = tokens < 0 ? (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+            }
+            return sleep(sleepNanos);
+        }
+
+        /**
+         * Called with the lock held, before tokens are taken.
+         */
+        protected void adjust(long entries, long busyNanos) {
+        }
+
+        @Override
+        synchronized double getRate() {
+            return rate;
+        }
+    }
+
+    /**
+     * Token bucket whose rate follows the disk latency, additive increase, multiplicative decrease:
+     * the rate grows while the time to stat an entry stays close to the lowest one observed, and is
+     * halved as soon as it gets twice as slow, typically because builds compete for the disk.
+     */
+    static class Adaptive extends TokenBucket {
+        private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final double minRate;
+
+        private final double maxRate;
+
+        private double baseline = Double.MAX_VALUE;
+
+        private long windowStart = System.nanoTime();
+
+        private long windowEntries;
+
+        private long windowBusyNanos;
+
+        Adaptive(double minRate, double maxRate) {
+            super(minRate);
+            this.minRate = minRate;
+            this.maxRate = maxRate;
+        }
+
+        @Override
+        protected void adjust(long entries, long busyNanos) {
+            windowEntries += entries;
+            windowBusyNanos += busyNanos;
+            long now = System.nanoTime();
+            if (now - windowStart < WINDOW_NANOS || windowEntries == 0) {
+                return;
+            }
+            double latency = (double) windowBusyNanos / windowEntries;
+            // let the baseline slowly drift up, in case the storage itself got slower
+            baseline = Math.min(latency, baseline * 1.01);
+            if (latency > 2 * baseline) {
+                rate = Math.max(minRate, rate / 2);
+            } else {
+                rate = Math.min(maxRate, rate + maxRate / 20);
+            }
+            windowStart = now;
+            windowEntries = 0;
+            windowBusyNanos = 0;
+        }
+    }
+}
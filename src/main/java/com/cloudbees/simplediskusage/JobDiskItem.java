@@ -25,6 +25,11 @@ package com.cloudbees.simplediskusage;
 
 import hudson.model.Job;
 import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A job directory path on the disk with its usage information
@@ -33,11 +38,24 @@ public class JobDiskItem extends DiskItem {
 
     private final String fullName;
     private final String url;
+    /**
+     * Usage in KiB then file count of each {@link UsageCategory}, null if unknown.
+     */
+    private final long[] categories;
 
     public JobDiskItem(Job<?, ?> job, Long size, Long count) {
-        super(job.getFullDisplayName(), job.getRootDir(), size, count);
+        this(job, size, count, null);
+    }
+
+    JobDiskItem(Job<?, ?> job, Long size, Long count, long[] categories) {
+        this(job, size, count, categories, null);
+    }
+
+    JobDiskItem(Job<?, ?> job, Long size, Long count, long[] categories, long[] ages) {
+        super(job.getFullDisplayName(), job.getRootDir(), size, count, ages);
         this.fullName = job.getFullName();
         this.url = job.getUrl();
+        this.categories = categories;
     }
 
     @Deprecated
@@ -45,6 +63,51 @@ public class JobDiskItem extends DiskItem {
         this(job, size, 0L);
     }
 
+    JobDiskItem(String displayName, File path, Long size, Long count, String fullName, String url) {
+        this(displayName, path, size, count, fullName, url, null);
+    }
+
+    JobDiskItem(String displayName, File path, Long size, Long count, String fullName, String url,
+                long[] categories) {
+        this(displayName, path, size, count, fullName, url, categories, null);
+    }
+
+    JobDiskItem(String displayName, File path, Long size, Long count, String fullName, String url,
+                long[] categories, long[] ages) {
+        super(displayName, path, size, count, ages);
+        this.fullName = fullName;
+        this.url = url;
+        this.categories = categories;
+    }
+
+    /**
+     * The categories are kept as is, the difference goes to the other files until the next walk.
+     */
+    @Override
+    JobDiskItem withUsage(Long size, Long count) {
+        return new JobDiskItem(getDisplayName(), getPath(), size, count, fullName, url, categories, getAgeUsages());
+    }
+
+    /**
+     * @return a copy of this item with another category breakdown
+     */
+    JobDiskItem withCategories(long[] categories) {
+        return new JobDiskItem(getDisplayName(), getPath(), getUsage(), getCount(), fullName, url, categories,
+                getAgeUsages());
+    }
+
+    @Override
+    JobDiskItem withAges(long[] ages) {
+        return new JobDiskItem(getDisplayName(), getPath(), getUsage(), getCount(), fullName, url, categories, ages);
+    }
+
+    /**
+     * @return usage in KiB then file count of each {@link UsageCategory}, or null if unknown
+     */
+    long[] getCategoryUsages() {
+        return categories;
+    }
+
     @Exported
     public String getFullName() {
         return fullName;
@@ -55,6 +118,64 @@ public class JobDiskItem extends DiskItem {
         return url;
     }
 
+    /**
+     * @return usage of each {@link UsageCategory} then of the other files, or an empty list if unknown
+     */
+    @Exported
+    public List<CategoryUsage> getCategories() {
+        if (categories == null) {
+            return List.of();
+        }
+        List<CategoryUsage> result = new ArrayList<>(categories.length / 2 + 1);
+        long otherUsage = getUsage() == null ? 0 : getUsage();
+        long otherCount = getCount() == null ? 0 : getCount();
+        for (UsageCategory category : UsageCategory.values()) {
+            long usage = categories[2 * category.ordinal()];
+            long count = categories[2 * category.ordinal() + 1];
+            result.add(new CategoryUsage(category.getName(), usage, count));
+            otherUsage -= usage;
+            otherCount -= count;
+        }
+        // the total may have been lowered by a build deletion since the categories were walked
+        result.add(new CategoryUsage("other", Math.max(0, otherUsage), Math.max(0, otherCount)));
+        return result;
+    }
+
+    /**
+     * Usage of the files of a job in a category.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class CategoryUsage {
+        private final String name;
+        private final long usage;
+        private final long count;
+
+        CategoryUsage(String name, long usage, long count) {
+            this.name = name;
+            this.usage = usage;
+            this.count = count;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported(name = "usageKB")
+        public long getUsage() {
+            return usage;
+        }
+
+        @Exported
+        public long getCount() {
+            return count;
+        }
+
+        public String getUsageFormatted() {
+            return DiskItem.formatUsage(usage);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         return super.equals(o);
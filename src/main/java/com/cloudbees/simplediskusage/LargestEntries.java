@@ -0,0 +1,255 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * The largest files, and the directories with the largest or most files of their own, seen by a scan.
+ *
+ * Each ranking is a min-heap bounded to its size, so memory doesn't grow with the tree. Once a ranking is full,
+ * entries not larger than its smallest one are dropped without locking, walkers share the rankings of a scan.
+ *
+ * Directories are ranked by the files directly in them, their subdirectories are ranked on their own.
+ * Directories reused from the {@link DirectoryIndex}, or skipped as already walked, are not walked again: the index
+ * keeps the largest file of each directory, and of each sealed tree, the other entries are carried over, see
+ * {@link #carryOver(LargestEntries)}.
+ */
+final class LargestEntries {
+
+    /**
+     * A ranked file or directory.
+     */
+    static final class Entry {
+        final Path path;
+        final long usage;
+        final long count;
+        // modification time of a directory, to tell whether its files changed since, 0 for a file
+        final long mtime;
+
+        Entry(Path path, long usage, long count, long mtime) {
+            this.path = path;
+            this.usage = usage;
+            this.count = count;
+            this.mtime = mtime;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("path", path.toString());
+            json.put("bytes", usage);
+            json.put("count", count);
+            return json;
+        }
+    }
+
+    private static final class Ranking {
+        private final int size;
+        private final ToLongFunction<Entry> key;
+        private final PriorityQueue<Entry> heap;
+        // smallest key ranked once full, smaller entries are dropped without locking
+        private final AtomicLong floor = new AtomicLong();
+
+        Ranking(int size, ToLongFunction<Entry> key) {
+            this.size = size;
+            this.key = key;
+            this.heap = new PriorityQueue<>(size, Comparator.comparingLong(key));
+        }
+
+        boolean accepts(long value) {
+            return value > floor.get();
+        }
+
+        synchronized void offer(Entry entry) {
+            long value = key.applyAsLong(entry);
+            if (heap.size() == size) {
+                if (value <= key.applyAsLong(heap.peek())) {
+                    return;
+                }
+                heap.poll();
+            }
+            heap.add(entry);
+            if (heap.size() == size) {
+                floor.set(key.applyAsLong(heap.peek()));
+            }
+        }
+
+        synchronized boolean contains(Path path) {
+            for (Entry entry : heap) {
+                if (entry.path.equals(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the ranked entries, the largest first
+         */
+        synchronized List<Entry> sorted() {
+            List<Entry> entries = new ArrayList<>(heap);
+            entries.sort(Comparator.comparingLong(key).reversed());
+            return entries;
+        }
+    }
+
+    private final Ranking files;
+
+    private final Ranking directoriesByUsage;
+
+    private final Ranking directoriesByCount;
+
+    /**
+     * @param size number of entries of each ranking, at least 1
+     */
+    LargestEntries(int size) {
+        files = new Ranking(size, entry -> entry.usage);
+        directoriesByUsage = new Ranking(size, entry -> entry.usage);
+        directoriesByCount = new Ranking(size, entry -> entry.count);
+    }
+
+    void file(Path file, long usage) {
+        if (files.accepts(usage)) {
+            files.offer(new Entry(file, usage, 1, 0));
+        }
+    }
+
+    /**
+     * Same as {@link #file(Path, long)}, only resolving the file when it is ranked.
+     *
+     * @param name path of the file relative to the directory
+     */
+    void file(Path dir, String name, long usage) {
+        if (files.accepts(usage)) {
+            files.offer(new Entry(dir.resolve(name), usage, 1, 0));
+        }
+    }
+
+    /**
+     * @param usage usage of the files directly in the directory
+     * @param count number of files directly in the directory
+     * @param mtime modification time of the directory
+     */
+    void directory(Path dir, long usage, long count, long mtime) {
+        boolean byUsage = directoriesByUsage.accepts(usage);
+        boolean byCount = directoriesByCount.accepts(count);
+        if (byUsage || byCount) {
+            Entry entry = new Entry(dir, usage, count, mtime);
+            if (byUsage) {
+                directoriesByUsage.offer(entry);
+            }
+            if (byCount) {
+                directoriesByCount.offer(entry);
+            }
+        }
+    }
+
+    /**
+     * Ranks again the entries of the previous scan this one didn't rank, as they may not have been walked: files
+     * with their current size, directories with their previous totals while their modification time didn't change.
+     * Only stats the previous entries.
+     */
+    void carryOver(LargestEntries previous) {
+        for (Entry entry : previous.getFiles()) {
+            if (!files.contains(entry.path)) {
+                BasicFileAttributes attrs = stat(entry.path);
+                if (attrs != null && attrs.isRegularFile()) {
+                    file(entry.path, attrs.size());
+                }
+            }
+        }
+        carryOver(previous.directoriesByUsage, directoriesByUsage);
+        carryOver(previous.directoriesByCount, directoriesByCount);
+    }
+
+    private static void carryOver(Ranking previous, Ranking ranking) {
+        for (Entry entry : previous.sorted()) {
+            if (!ranking.contains(entry.path)) {
+                BasicFileAttributes attrs = stat(entry.path);
+                if (attrs != null && attrs.isDirectory() && attrs.lastModifiedTime().toMillis() == entry.mtime) {
+                    ranking.offer(entry);
+                }
+            }
+        }
+    }
+
+    private static BasicFileAttributes stat(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            // deleted since
+            return null;
+        }
+    }
+
+    /**
+     * @return the largest files, the largest first
+     */
+    List<Entry> getFiles() {
+        return files.sorted();
+    }
+
+    /**
+     * @return the directories with the largest files usage, the largest first
+     */
+    List<Entry> getDirectoriesByUsage() {
+        return directoriesByUsage.sorted();
+    }
+
+    /**
+     * @return the directories with the most files, the largest first
+     */
+    List<Entry> getDirectoriesByCount() {
+        return directoriesByCount.sorted();
+    }
+
+    JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("files", toJSON(files));
+        json.put("directoriesByUsage", toJSON(directoriesByUsage));
+        json.put("directoriesByCount", toJSON(directoriesByCount));
+        return json;
+    }
+
+    private static JSONArray toJSON(Ranking ranking) {
+        JSONArray array = new JSONArray();
+        for (Entry entry : ranking.sorted()) {
+            array.add(entry.toJSON());
+        }
+        return array;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs with open addressing and linear probing, so millions of values
+ * don't cost millions of boxed objects.
+ *
+ * Not thread safe.
+ */
+final class LongHashSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] values;
+
+    private int size;
+
+    private boolean containsEmpty;
+
+    LongHashSet() {
+        this(1024);
+    }
+
+    LongHashSet(int expectedSize) {
+        values = new long[Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1];
+    }
+
+    /**
+     * @return true if the value was added, false if it was already in the set
+     */
+    boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        int mask = values.length - 1;
+        for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+            long current = values[i];
+            if (current == value) {
+                return false;
+            }
+            if (current == EMPTY) {
+                values[i] = value;
+                if (++size * 2 > values.length) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        int mask = values.length - 1;
+        for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+            long current = values[i];
+            if (current == value) {
+                return true;
+            }
+            if (current == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, EMPTY);
+        size = 0;
+        containsEmpty = false;
+    }
+
+    private void grow() {
+        long[] old = values;
+        values = new long[old.length * 2];
+        int mask = values.length - 1;
+        for (long value : old) {
+            if (value != EMPTY) {
+                int i = hash(value) & mask;
+                while (values[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                values[i] = value;
+            }
+        }
+    }
+
+    private static int hash(long value) {
+        // murmur3 finalizer, inode numbers are often sequential
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
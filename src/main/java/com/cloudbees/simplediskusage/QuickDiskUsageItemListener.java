@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps job usages up to date as jobs get created, deleted or moved, without waiting for the next scan.
+ */
+@Extension
+public class QuickDiskUsageItemListener extends ItemListener {
+
+    @Override
+    public void onCreated(Item item) {
+        QuickDiskUsagePlugin plugin = Jenkins.get().getPlugin(QuickDiskUsagePlugin.class);
+        if (plugin == null) return;
+        plugin.onItemCreated(item);
+    }
+
+    @Override
+    public void onDeleted(Item item) {
+        QuickDiskUsagePlugin plugin = Jenkins.get().getPlugin(QuickDiskUsagePlugin.class);
+        if (plugin == null) return;
+        plugin.onItemDeleted(item);
+    }
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        QuickDiskUsagePlugin plugin = Jenkins.get().getPlugin(QuickDiskUsagePlugin.class);
+        if (plugin == null) return;
+        plugin.onItemLocationChanged(oldFullName, newFullName);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.model.Computer;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts the scans every {@link QuickDiskUsagePlugin#SCAN_INTERVAL}, within the configured windows, and only
+ * while Jenkins is not busy: the running scan is paused as soon as the build queue gets long, the executors
+ * saturated or the load average high, and resumed once it settles. Reads serve the last computed usages meanwhile.
+ */
+@Extension
+public class QuickDiskUsagePeriodicWork extends PeriodicWork {
+
+    private final List<LocalTime[]> windows = parseWindows(QuickDiskUsagePlugin.SCAN_WINDOWS);
+
+    /**
+     * Why the last run found Jenkins busy, null if it was not.
+     */
+    private String busyReason;
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void doRun() {
+        Jenkins jenkins = Jenkins.get();
+        if (jenkins.getInitLevel() != InitMilestone.COMPLETED) return;
+        QuickDiskUsagePlugin plugin = jenkins.getPlugin(QuickDiskUsagePlugin.class);
+        if (plugin == null) return;
+        String reason = getBusyReason(jenkins);
+        if (reason != null && busyReason == null) {
+            logger.log(Level.FINE, "Deferring disk usage scans: {0}", reason);
+        } else if (reason == null && busyReason != null) {
+            logger.log(Level.FINE, "Jenkins is no longer busy, disk usage scans can proceed");
+        }
+        busyReason = reason;
+        if (plugin.isRunning()) {
+            plugin.setScanPaused(reason != null);
+        } else if (reason == null && isInWindow(windows, LocalTime.now())
+                && isDue(System.currentTimeMillis(), plugin.getLastRunEnd(), plugin.getNextScanNotBefore())) {
+            plugin.refreshData();
+        }
+    }
+
+    /**
+     * @param lastRunEnd end of the last completed scan
+     * @param nextScanNotBefore time before which no scan starts, after a cancelled one for instance
+     * @return true if a scan should start now
+     */
+    static boolean isDue(long now, long lastRunEnd, long nextScanNotBefore) {
+        return now - lastRunEnd >= QuickDiskUsagePlugin.SCAN_INTERVAL && now >= nextScanNotBefore;
+    }
+
+    /**
+     * @return why scans should not run now, or null if they can
+     */
+    static String getBusyReason(Jenkins jenkins) {
+        if (QuickDiskUsagePlugin.MAX_QUEUE_LENGTH > 0) {
+            int queueLength = jenkins.getQueue().countBuildableItems();
+            if (queueLength > QuickDiskUsagePlugin.MAX_QUEUE_LENGTH) {
+                return queueLength + " builds waiting in the queue";
+            }
+        }
+        if (QuickDiskUsagePlugin.MAX_BUSY_EXECUTORS > 0) {
+            int busy = 0;
+            int executors = 0;
+            for (Computer computer : jenkins.getComputers()) {
+                if (computer.isOnline()) {
+                    busy += computer.countBusy();
+                    executors += computer.countExecutors();
+                }
+            }
+            if (executors > 0 && busy * 100 >= executors * QuickDiskUsagePlugin.MAX_BUSY_EXECUTORS) {
+                return busy + " of " + executors + " executors busy";
+            }
+        }
+        if (QuickDiskUsagePlugin.MAX_LOAD_AVERAGE > 0) {
+            // negative where not available
+            double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+            if (loadAverage > QuickDiskUsagePlugin.MAX_LOAD_AVERAGE) {
+                return "load average " + loadAverage;
+            }
+        }
+        return null;
+    }
+
+    static boolean isInWindow(List<LocalTime[]> windows, LocalTime time) {
+        if (windows.isEmpty()) {
+            return true;
+        }
+        for (LocalTime[] window : windows) {
+            boolean in = window[0].isAfter(window[1])
+                    // over midnight
+                    ? !time.isBefore(window[0]) || time.isBefore(window[1])
+                    : !time.isBefore(window[0]) && time.isBefore(window[1]);
+            if (in) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param spec comma separated {@code HH:mm-HH:mm} ranges, invalid ones are ignored
+     */
+    static List<LocalTime[]> parseWindows(String spec) {
+        List<LocalTime[]> windows = new ArrayList<>();
+        for (String range : spec.split(",")) {
+            range = range.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            String[] bounds = range.split("-", 2);
+            try {
+                if (bounds.length != 2) {
+                    throw new DateTimeParseException("Expected HH:mm-HH:mm", range, 0);
+                }
+                windows.add(new LocalTime[] {LocalTime.parse(bounds[0].trim()), LocalTime.parse(bounds[1].trim())});
+            } catch (DateTimeParseException e) {
+                logger.log(Level.WARNING, "Ignoring invalid disk usage scan window {0}", range);
+            }
+        }
+        return windows;
+    }
+
+    private static final Logger logger = Logger.getLogger(QuickDiskUsagePeriodicWork.class.getName());
+}
@@ -24,16 +24,25 @@
 package com.cloudbees.simplediskusage;
 
 import hudson.*;
-import hudson.init.InitMilestone;
 import hudson.model.Api;
+import hudson.model.Computer;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
 import hudson.model.Job;
+import hudson.model.Node;
 import hudson.model.ModelObject;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.Slave;
 import hudson.model.TopLevelItem;
 import hudson.security.ACL;
 import hudson.security.ACLContext;
 import hudson.util.NamingThreadFactory;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import jenkins.util.Timer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 import org.kohsuke.stapler.export.Exported;
@@ -42,17 +51,35 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import jakarta.inject.Singleton;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,171 +90,1694 @@ public class QuickDiskUsagePlugin extends Plugin implements ModelObject {
 
     public static final int QUIET_PERIOD = 15 * 60 * 1000;
 
+    /**
+     * Number of threads walking the disk. Defaults to 1, a single throttled walker.
+     * Higher values split jobs and directories over a bounded pool sharing the same throttle.
+     */
+    static final int PARALLELISM = SystemProperties.getInteger(QuickDiskUsagePlugin.class.getName() + ".parallelism", 1);
+
+    /**
+     * Skip reading directories whose modification time didn't change since the previous scan.
+     * Files growing in place are only noticed once their directory is read again,
+     * at most {@link #INCREMENTAL_MAX_AGE} later.
+     */
+    static final boolean INCREMENTAL = SystemProperties.getBoolean(QuickDiskUsagePlugin.class.getName() + ".incremental", false);
+
+    static final long INCREMENTAL_MAX_AGE = SystemProperties.getLong(
+            QuickDiskUsagePlugin.class.getName() + ".incrementalMaxAge", TimeUnit.DAYS.toMillis(1));
+
+    /**
+     * How the walk is throttled: {@code dutycycle} (default) pauses the walk for as long as it ran,
+     * {@code tokenbucket} limits it to {@link #THROTTLE_RATE} files and directories per second, and
+     * {@code adaptive} adjusts that rate between {@link #THROTTLE_MIN_RATE} and {@link #THROTTLE_RATE}
+     * depending on the disk latency.
+     */
+    static final String THROTTLE = SystemProperties.getString(QuickDiskUsagePlugin.class.getName() + ".throttle", "dutycycle");
+
+    static final int THROTTLE_RATE = SystemProperties.getInteger(QuickDiskUsagePlugin.class.getName() + ".throttleRate", 5000);
+
+    static final int THROTTLE_MIN_RATE = SystemProperties.getInteger(QuickDiskUsagePlugin.class.getName() + ".throttleMinRate", 200);
+
+    /**
+     * Walk again the jobs and directories whose usage didn't change in the last scans less and less often,
+     * see {@link RefreshSchedule}. Their usage is at most {@link #REFRESH_MAX_INTERVAL} old.
+     */
+    static final boolean ADAPTIVE_REFRESH = SystemProperties.getBoolean(
+            QuickDiskUsagePlugin.class.getName() + ".adaptiveRefresh", false);
+
+    static final long REFRESH_MAX_INTERVAL = SystemProperties.getLong(
+            QuickDiskUsagePlugin.class.getName() + ".refreshMaxInterval", TimeUnit.DAYS.toMillis(1));
+
+    /**
+     * {@link UsageScanner} of each scanned root, as comma separated {@code path=id} pairs, for instance
+     * {@code /var/jenkins_home=du}. Roots without a scanner are walked as configured by the other properties.
+     */
+    static final String SCANNERS = SystemProperties.getString(QuickDiskUsagePlugin.class.getName() + ".scanners", "");
+
+    /**
+     * Count the space used on disk rather than the apparent size of files: files with several hard links are
+     * counted once, and sizes are rounded up to the file system block size. Costs one more stat per file larger
+     * than a block, and completed builds are walked by each scan rather than reused from the directory index.
+     */
+    static final boolean HARD_LINK_AWARE = SystemProperties.getBoolean(
+            QuickDiskUsagePlugin.class.getName() + ".hardLinkAware", false);
+
+    /**
+     * Also measure the job workspaces on the online agents. Each agent walks its own workspaces
+     * with its own throttle, and only sends back a usage and file count per workspace.
+     */
+    static final boolean WORKSPACES = SystemProperties.getBoolean(QuickDiskUsagePlugin.class.getName() + ".workspaces", false);
+
+    /**
+     * How long to wait for an agent to measure its workspaces, the results of slower agents are dropped.
+     */
+    static final long WORKSPACES_TIMEOUT = SystemProperties.getLong(
+            QuickDiskUsagePlugin.class.getName() + ".workspacesTimeout", TimeUnit.HOURS.toMillis(1));
+
+    /**
+     * Break the usage of the jobs down by {@link UsageCategory} while walking them: archived artifacts, build logs,
+     * pipeline data, test results and stashes.
+     */
+    static final boolean CATEGORIES = SystemProperties.getBoolean(QuickDiskUsagePlugin.class.getName() + ".categories", true);
+
+    /**
+     * Usage threshold of jobs, folders and directories, as comma separated {@code name=size} pairs, for instance
+     * {@code team/app=20G,JENKINS_HOME/workspace=100G}. Jobs and folders are named by their full name, directories
+     * by their display name. See {@link UsageThresholdMonitor}.
+     */
+    static final String THRESHOLDS = SystemProperties.getString(QuickDiskUsagePlugin.class.getName() + ".thresholds", "");
+
+    /**
+     * Usage threshold of the jobs not listed in {@link #THRESHOLDS}, for instance {@code 10G}. Empty for none.
+     */
+    static final String JOB_THRESHOLD = SystemProperties.getString(QuickDiskUsagePlugin.class.getName() + ".jobThreshold", "");
+
+    /**
+     * Minimum percentage of free space of the file system holding {@code JENKINS_HOME}. 0 for none.
+     */
+    static final int MIN_FREE_SPACE = SystemProperties.getInteger(QuickDiskUsagePlugin.class.getName() + ".minFreeSpace", 0);
+
+    /**
+     * Percentage of its threshold a usage must go back under, or of the minimum free space the free space must go
+     * back over, before its alert is cleared.
+     */
+    static final int THRESHOLD_HYSTERESIS = SystemProperties.getInteger(
+            QuickDiskUsagePlugin.class.getName() + ".thresholdHysteresis", 10);
+
+    /**
+     * Number of jobs whose build discarder is applied at the same time by a bulk cleanup, see {@link BulkCleanup}.
+     */
+    static final int CLEANUP_CONCURRENCY = SystemProperties.getInteger(
+            QuickDiskUsagePlugin.class.getName() + ".cleanupConcurrency", 2);
+
+    /**
+     * Number of the largest files, and of the directories with the largest or most files, ranked by each scan,
+     * see {@link LargestEntries}. 0 to not rank them.
+     */
+    static final int LARGEST = SystemProperties.getInteger(QuickDiskUsagePlugin.class.getName() + ".largest", 20);
+
+    /**
+     * Minimum time between the end of a scan and the start of the next one, see {@link QuickDiskUsagePeriodicWork}.
+     */
+    static final long SCAN_INTERVAL = SystemProperties.getLong(
+            QuickDiskUsagePlugin.class.getName() + ".scanInterval", TimeUnit.HOURS.toMillis(1));
+
+    /**
+     * Times of the day when scans may start, as comma separated {@code HH:mm-HH:mm} local time ranges,
+     * for instance {@code 22:00-06:00} for nights only. Empty to start scans at any time.
+     */
+    static final String SCAN_WINDOWS = SystemProperties.getString(QuickDiskUsagePlugin.class.getName() + ".scanWindows", "");
+
+    /**
+     * Scans are deferred, or paused if running, while more builds than this wait in the queue. 0 to ignore the queue.
+     */
+    static final int MAX_QUEUE_LENGTH = SystemProperties.getInteger(
+            QuickDiskUsagePlugin.class.getName() + ".maxQueueLength", 20);
+
+    /**
+     * Scans are deferred, or paused if running, while at least this percentage of the executors are busy.
+     * 0 to ignore the executors.
+     */
+    static final int MAX_BUSY_EXECUTORS = SystemProperties.getInteger(
+            QuickDiskUsagePlugin.class.getName() + ".maxBusyExecutors", 90);
+
+    /**
+     * Scans are deferred, or paused if running, while the system load average is above this value.
+     * Defaults to twice the number of processors, 0 to ignore the load average.
+     */
+    static final double MAX_LOAD_AVERAGE = Double.parseDouble(SystemProperties.getString(
+            QuickDiskUsagePlugin.class.getName() + ".maxLoadAverage",
+            String.valueOf(2 * Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * Completed builds usage is cached and reused while their directory is unchanged,
+     * but they are walked again after this delay anyway.
+     */
+    static final long COMPLETED_BUILDS_MAX_AGE = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * An interrupted scan is resumed from its checkpoint if it started less than this long ago,
+     * otherwise the usages it walked are considered outdated and it starts over.
+     */
+    private static final long CHECKPOINT_MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Number of scans whose metrics are kept.
+     */
+    private static final int SCAN_METRICS_HISTORY = 20;
+
+    /**
+     * Part of the ETag of the query responses, as the modification counts of the stores start over after a restart.
+     */
+    private static final String BOOT_ID = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
     private static final Executor singleExecutorService = Executors.newSingleThreadExecutor(
             new NamingThreadFactory(Executors.defaultThreadFactory(),"Simple disk usage computation"));
 
+    /**
+     * Runs the updates following builds and items events, so they don't wait for a scan to complete.
+     */
+    private static final Executor eventExecutorService = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(Executors.defaultThreadFactory(), "Simple disk usage events"));
+
+    /**
+     * Serializes the updates of a job by the events thread with the scan publishing its usage, see {@link #lockFor(Path)}.
+     */
+    private transient final Object[] jobLocks = newLocks(64);
+
     private static final Logger logger = Logger.getLogger(QuickDiskUsagePlugin.class.getName());
 
-    private final CopyOnWriteArrayList<DiskItem> directoriesUsages = new CopyOnWriteArrayList<>();
+    private transient final UsageStore<DiskItem> directories = new UsageStore<>();
+
+    private transient final UsageStore<JobDiskItem> jobs = new UsageStore<>();
+
+    /**
+     * Subtree usage of each folder, multibranch project or organization, computed by the same walk as the jobs.
+     */
+    private transient final UsageStore<FolderDiskItem> folders = new UsageStore<>();
+
+    /**
+     * Workspaces usages by agent name, only kept in memory and measured again by the next scan.
+     */
+    private transient final Map<String, List<WorkspaceDiskItem>> workspaces = new ConcurrentHashMap<>();
+
+    /**
+     * Only read from configurations written by older versions, migrated to the usage snapshot.
+     */
+    private List<DiskItem> directoriesUsages;
+
+    /**
+     * Only read from configurations written by older versions, migrated to the usage snapshot.
+     */
+    private List<JobDiskItem> jobsUsages;
+
+    /**
+     * Whether the usage snapshot was read into the stores, guarded by this.
+     */
+    private transient boolean usagesLoaded;
+
+    private long lastRunStart = 0;
+
+    private long lastRunEnd = 0;
+
+    /**
+     * Periodic scans don't start before this time, set when a scan is cancelled so it isn't restarted right away.
+     */
+    private long nextScanNotBefore = 0;
+
+    private transient final AtomicInteger progress = new AtomicInteger();
+    
+    private transient final AtomicInteger total = new AtomicInteger();
+
+    private transient DirectoryIndex directoryIndex;
+
+    private transient UsageHistory usageHistory;
+
+    /**
+     * Metrics of the last scans, most recent first, guarded by itself.
+     */
+    private transient final Deque<ScanMetrics> scanMetrics = new ArrayDeque<>();
+
+    /**
+     * Metrics of all the scans and event updates since startup.
+     */
+    private transient final ScanMetrics cumulativeMetrics = new ScanMetrics();
+
+    /**
+     * The running full scan, if any.
+     */
+    private transient volatile UsageComputation currentComputation;
+
+    /**
+     * Shared by all the computations, so event updates and scans share the same IO budget.
+     */
+    private transient final IoThrottle throttle = createThrottle();
+
+    /**
+     * Usage of the builds which were running during the last scan, the index only knows completed ones.
+     */
+    private transient final Map<Path, long[]> runningBuildsUsages = new ConcurrentHashMap<>();
+
+    private transient final RefreshSchedule refreshSchedule = new RefreshSchedule(QUIET_PERIOD, REFRESH_MAX_INTERVAL);
+
+    /**
+     * The running or last bulk cleanup, if any.
+     */
+    private transient final AtomicReference<BulkCleanup> bulkCleanup = new AtomicReference<>();
+
+    /**
+     * The largest files and directories of the last completed scan, if any.
+     */
+    private transient final AtomicReference<LargestEntries> largest = new AtomicReference<>();
+
+    /**
+     * The hard links counted by the last completed scan, if any, not counted again by the new builds and jobs.
+     */
+    private transient final AtomicReference<HardLinkTracker> scannedHardLinks = new AtomicReference<>();
+
+    private transient final UsageThresholds thresholds = new UsageThresholds(UsageThresholds.parse(THRESHOLDS),
+            Math.max(0, UsageThresholds.parseSize(JOB_THRESHOLD)), MIN_FREE_SPACE, THRESHOLD_HYSTERESIS);
+
+    @Override
+    public void start() throws Exception {
+        try {
+            load();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to load " + getConfigXml(), e);
+        }
+        if (isRunning()) {
+            // It's impossible, the plugin was just loaded. Let's reset end date,
+            // the next scan resumes from its checkpoint
+            lastRunEnd = lastRunStart;
+        }
+        if (directoriesUsages != null || jobsUsages != null) {
+            migrateUsages();
+        }
+    }
+
+    /**
+     * Moves the usages found in the XML configuration to the usage snapshot.
+     */
+    private synchronized void migrateUsages() {
+        if (directoriesUsages != null) {
+            directories.putAll(directoriesUsages);
+            directoriesUsages = null;
+        }
+        if (jobsUsages != null) {
+            jobs.putAll(jobsUsages);
+            jobsUsages = null;
+        }
+        usagesLoaded = true;
+        try {
+            save();
+            logger.log(Level.INFO, "Migrated disk usages from {0} to {1}", new Object[] {getConfigXml(), getUsageSnapshotFile()});
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to migrate disk usages to " + getUsageSnapshotFile(), e);
+        }
+    }
+
+    /**
+     * Reads the usage snapshot, only once needed so it doesn't slow down Jenkins startup.
+     * Items already updated by events since startup are kept.
+     */
+    private synchronized void loadUsages() {
+        if (usagesLoaded) {
+            return;
+        }
+        usagesLoaded = true;
+        try {
+            UsageSnapshot snapshot = UsageSnapshot.read(getUsageSnapshotFile());
+            if (snapshot != null) {
+                for (DiskItem item : snapshot.getDirectories()) {
+                    directories.putIfAbsent(item);
+                    thresholds.check(item);
+                }
+                for (JobDiskItem item : snapshot.getJobs()) {
+                    jobs.putIfAbsent(item);
+                    thresholds.check(item);
+                }
+                for (FolderDiskItem item : snapshot.getFolders()) {
+                    folders.putIfAbsent(item);
+                    thresholds.check(item);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to load " + getUsageSnapshotFile() + ", starting from scratch", e);
+        }
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        super.save();
+        if (usagesLoaded) {
+            UsageSnapshot.write(getUsageSnapshotFile(), directories.snapshot(), jobs.snapshot(), folders.snapshot());
+        }
+    }
+
+    /**
+     * Runs a task on the computation thread, once the usage snapshot is loaded.
+     */
+    private void execute(Runnable task) {
+        singleExecutorService.execute(() -> {
+            loadUsages();
+            task.run();
+        });
+    }
+
+    /**
+     * Runs an event update on the events thread, once the usage snapshot is loaded. It runs while a scan may be
+     * walking, the job it updates must be locked, see {@link #lockFor(Path)}. A job changed while the scan walks it
+     * may be published with its usage as of the walk, its directory is then walked again by the next scan.
+     */
+    private void executeEvent(Runnable task) {
+        eventExecutorService.execute(() -> {
+            loadUsages();
+            task.run();
+        });
+    }
+
+    private static Object[] newLocks(int count) {
+        Object[] locks = new Object[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    /**
+     * @return the lock of a job directory, held while its usage is read and updated
+     */
+    private Object lockFor(Path jobDir) {
+        return jobLocks[Math.floorMod(jobDir.hashCode(), jobLocks.length)];
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Disk Usage";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public void refreshData() {
+        if (!isRunning()) {
+            execute(computeDiskUsage);
+        }
+    }
+
+    /**
+     * @deprecated scans are started by {@link QuickDiskUsagePeriodicWork} once Jenkins is up
+     */
+    @Deprecated
+    public void refreshDataOnStartup() {
+    }
+
+    /**
+     * Pauses or resumes the running scan, if any, see {@link UsageComputation#setPaused(boolean)}.
+     */
+    void setScanPaused(boolean paused) {
+        UsageComputation uc = currentComputation;
+        if (uc != null) {
+            uc.setPaused(paused);
+        }
+    }
+
+    // Jelly only
+    public boolean isPaused() {
+        UsageComputation uc = currentComputation;
+        return uc != null && uc.isPaused();
+    }
+
+    @Exported(inline = true)
+    public List<DiskItem> getDirectoriesUsages() throws IOException {
+        prepareRead();
+        return directories.snapshot();
+    }
+
+    @Exported(inline = true)
+    public List<JobDiskItem> getJobsUsages() throws IOException {
+        prepareRead();
+        return jobs.snapshot();
+    }
+
+    @Exported(inline = true)
+    public List<WorkspaceDiskItem> getWorkspacesUsages() {
+        List<WorkspaceDiskItem> items = new ArrayList<>();
+        for (List<WorkspaceDiskItem> nodeItems : workspaces.values()) {
+            items.addAll(nodeItems);
+        }
+        Collections.sort(items);
+        return items;
+    }
+
+    /**
+     * @return the items over their usage threshold, and the file system if under its minimum free space
+     */
+    @Exported(inline = true)
+    public List<UsageThresholds.Alert> getAlerts() {
+        prepareRead();
+        return thresholds.getAlerts();
+    }
+
+    UsageThresholds getThresholds() {
+        return thresholds;
+    }
+
+    // Jelly only
+    public boolean isWorkspacesEnabled() {
+        return WORKSPACES;
+    }
+
+    /**
+     * @param name name of a {@link UsageAge}, null for the default one
+     * @return the age, files not modified within it are cold
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public UsageAge getColdAge(String name) {
+        if (name == null || name.isEmpty()) {
+            return UsageAge.MONTH;
+        }
+        UsageAge age = UsageAge.get(name);
+        if (age == null || age == UsageAge.OLDER) {
+            throw new IllegalArgumentException("olderThan must be one of day, week, month or sixMonths");
+        }
+        return age;
+    }
 
-    private final CopyOnWriteArrayList<JobDiskItem> jobsUsages = new CopyOnWriteArrayList<>();
+    /**
+     * @return the jobs with files not modified within the given age, the most cold data first
+     */
+    public List<JobDiskItem> getColdJobs(UsageAge age) throws IOException {
+        prepareRead();
+        return sortByColdUsage(jobs.snapshot(), age);
+    }
+
+    /**
+     * @return the directories with files not modified within the given age, the most cold data first
+     */
+    public List<DiskItem> getColdDirectories(UsageAge age) throws IOException {
+        prepareRead();
+        return sortByColdUsage(directories.snapshot(), age);
+    }
+
+    private static <T extends DiskItem> List<T> sortByColdUsage(List<T> items, UsageAge age) {
+        List<T> cold = new ArrayList<>();
+        for (T item : items) {
+            if (item.getColdUsage(age) > 0) {
+                cold.add(item);
+            }
+        }
+        cold.sort(Comparator.comparingLong((T item) -> item.getColdUsage(age)).reversed());
+        return cold;
+    }
+
+    /**
+     * Reads serve the last computed usages, scans are started by {@link QuickDiskUsagePeriodicWork}.
+     */
+    private void prepareRead() {
+        loadUsages();
+    }
+
+    @Exported
+    public long getLastRunStart() {
+        return lastRunStart;
+    }
+
+    @Exported
+    public long getLastRunEnd() {
+        return lastRunEnd;
+    }
+
+    public String getSince() {
+        return Util.getTimeSpanString(System.currentTimeMillis() - lastRunEnd);
+    }
+
+    public String getDuration() {
+        return Util.getTimeSpanString(lastRunEnd - lastRunStart);
+    }
+
+    public boolean isRunning() {
+        return lastRunEnd < lastRunStart;
+    }
+
+    long getNextScanNotBefore() {
+        return nextScanNotBefore;
+    }
+
+    @RequirePOST
+    public void doRefresh(StaplerRequest2 req, StaplerResponse2 res) throws IOException, ServletException {
+        refreshData();
+        res.forwardToPreviousPage(req);
+    }
+
+    /**
+     * Queries the jobs usages, see {@link UsageQuery#parse(StaplerRequest2)} for the parameters.
+     */
+    public void doJobsQuery(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        query(jobs, req, res);
+    }
+
+    /**
+     * Queries the directories usages, see {@link UsageQuery#parse(StaplerRequest2)} for the parameters.
+     */
+    public void doDirectoriesQuery(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        query(directories, req, res);
+    }
+
+    /**
+     * Lists the folders and jobs directly in the given {@code folder}, the top level ones by default, with their
+     * subtree usage, so the UI can load the folder hierarchy one level at a time. Folders have {@code folder: true}.
+     * Accepts the same parameters as {@link #doJobsQuery(StaplerRequest2, StaplerResponse2)}.
+     */
+    public void doTree(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        String folder = Util.fixEmpty(req.getParameter("folder"));
+        String parent = folder == null ? "" : folder.endsWith("/") ? folder.substring(0, folder.length() - 1) : folder;
+        query(Long.toHexString(folders.getModCount()) + "-" + Long.toHexString(jobs.getModCount()),
+                order -> getChildren(parent, order), req, res);
+    }
+
+    /**
+     * @return the folders and jobs whose parent has the given full name, in the given order
+     */
+    private List<JobDiskItem> getChildren(String parent, Comparator<DiskItem> order) {
+        List<JobDiskItem> children = new ArrayList<>();
+        for (List<? extends JobDiskItem> items : List.of(folders.snapshot(), jobs.snapshot())) {
+            for (JobDiskItem item : items) {
+                String fullName = item.getFullName();
+                int slash = fullName.lastIndexOf('/');
+                if (slash < 0 ? parent.isEmpty() : slash == parent.length() && fullName.startsWith(parent)) {
+                    children.add(item);
+                }
+            }
+        }
+        children.sort(order);
+        return children;
+    }
+
+    private void query(UsageStore<?> store, StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        query(Long.toHexString(store.getModCount()), store::sorted, req, res);
+    }
+
+    /**
+     * @param version changes each time the items change
+     * @param items all the items, sorted in the given order
+     */
+    private void query(String version, Function<Comparator<DiskItem>, List<? extends DiskItem>> items,
+                       StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        prepareRead();
+        UsageQuery query;
+        try {
+            query = UsageQuery.parse(req);
+        } catch (IllegalArgumentException e) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        // changes with each scan and each event update, and with each restart as the store modification count is reset
+        long generation = lastRunEnd;
+        String etag = "\"" + BOOT_ID + "-" + Long.toHexString(generation) + "-" + version + "\"";
+        res.setHeader("ETag", etag);
+        res.setHeader("Cache-Control", "private, no-cache");
+        if (etag.equals(req.getHeader("If-None-Match"))) {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        JSONObject page = query.execute(items.apply(query.getOrder()));
+        page.put("generation", generation);
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(page);
+    }
+
+    /**
+     * History of a job or directory, given by its {@code path}, with its growth {@code since} the given time,
+     * a week ago by default.
+     */
+    public void doHistory(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        String path = req.getParameter("path");
+        if (path == null || path.isEmpty()) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "path is required");
+            return;
+        }
+        long since;
+        try {
+            since = getSince(req);
+        } catch (NumberFormatException e) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "since must be a number");
+            return;
+        }
+        UsageHistory history = getUsageHistory();
+        File file = new File(path);
+        JSONObject json = new JSONObject();
+        json.put("pathString", file.getAbsolutePath());
+        for (UsageHistory.Resolution resolution : UsageHistory.Resolution.values()) {
+            JSONArray points = new JSONArray();
+            for (UsageHistory.Point point : history.getPoints(file, resolution)) {
+                JSONObject p = new JSONObject();
+                p.put("time", point.getTime());
+                p.put("usageKB", point.getUsage());
+                p.put("count", point.getCount());
+                points.add(p);
+            }
+            json.put(resolution.name().toLowerCase(Locale.ROOT), points);
+        }
+        UsageHistory.Growth growth = history.getGrowth(file, since);
+        if (growth != null) {
+            json.put("growth", toJSON(growth));
+        }
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(json);
+    }
+
+    /**
+     * Jobs, or directories with {@code type=directories}, whose usage grew the most {@code since} the given time,
+     * a week ago by default. Only the {@code limit} first ones are returned.
+     */
+    public void doTopGrowers(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        loadUsages();
+        long since;
+        int limit;
+        try {
+            since = getSince(req);
+            String value = req.getParameter("limit");
+            limit = value == null ? 10 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "since and limit must be numbers");
+            return;
+        }
+        if (limit < 1 || limit > UsageQuery.MAX_LIMIT) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "limit must be between 1 and " + UsageQuery.MAX_LIMIT);
+            return;
+        }
+        UsageHistory history = getUsageHistory();
+        List<? extends DiskItem> items = "directories".equals(req.getParameter("type"))
+                ? directories.snapshot() : jobs.snapshot();
+        PriorityQueue<Map.Entry<DiskItem, UsageHistory.Growth>> top = new PriorityQueue<>(
+                Comparator.comparingLong(e -> e.getValue().getUsage()));
+        for (DiskItem item : items) {
+            UsageHistory.Growth growth = history.getGrowth(item.getPath(), since);
+            if (growth == null) {
+                continue;
+            }
+            top.add(Map.entry(item, growth));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Map.Entry<DiskItem, UsageHistory.Growth>> sorted = new ArrayList<>(top);
+        sorted.sort(Comparator.comparingLong((Map.Entry<DiskItem, UsageHistory.Growth> e) -> e.getValue().getUsage())
+                .reversed());
+        JSONArray json = new JSONArray();
+        for (Map.Entry<DiskItem, UsageHistory.Growth> e : sorted) {
+            JSONObject item = UsageQuery.toJSON(e.getKey());
+            item.put("growth", toJSON(e.getValue()));
+            json.add(item);
+        }
+        JSONObject page = new JSONObject();
+        page.put("items", json);
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(page);
+    }
+
+    private static long getSince(StaplerRequest2 req) {
+        String since = req.getParameter("since");
+        return since == null || since.isEmpty()
+                ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(7) : Long.parseLong(since);
+    }
+
+    private static JSONObject toJSON(UsageHistory.Growth growth) {
+        JSONObject json = new JSONObject();
+        json.put("from", growth.getFrom().getTime());
+        json.put("to", growth.getTo().getTime());
+        json.put("usageKB", growth.getUsage());
+        json.put("count", growth.getCount());
+        json.put("usageKBPerDay", growth.getUsagePerDay());
+        return json;
+    }
+
+    /**
+     * Metrics of the last scans, most recent first, and cumulated metrics of all the scans and event updates
+     * since startup.
+     */
+    public void doMetrics(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        JSONArray scans = new JSONArray();
+        synchronized (scanMetrics) {
+            for (ScanMetrics metrics : scanMetrics) {
+                scans.add(metrics.toJSON());
+            }
+        }
+        JSONObject json = new JSONObject();
+        json.put("scans", scans);
+        json.put("cumulative", cumulativeMetrics.toJSON());
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(json);
+    }
+
+    /**
+     * The jobs and directories with files not modified for a while, which could be deleted or moved to a cheaper
+     * storage, as of the last scan. The {@code olderThan} parameter is the name of a {@link UsageAge}, {@code month}
+     * by default.
+     */
+    public void doColdData(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        UsageAge age;
+        try {
+            age = getColdAge(req.getParameter("olderThan"));
+        } catch (IllegalArgumentException e) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        long coldUsage = 0;
+        long coldCount = 0;
+        JSONArray coldJobs = new JSONArray();
+        for (JobDiskItem item : getColdJobs(age)) {
+            coldUsage += item.getColdUsage(age);
+            coldCount += item.getColdCount(age);
+            coldJobs.add(toColdJSON(item, age));
+        }
+        JSONArray coldDirectories = new JSONArray();
+        for (DiskItem item : getColdDirectories(age)) {
+            coldDirectories.add(toColdJSON(item, age));
+        }
+        JSONObject json = new JSONObject();
+        json.put("olderThan", age.getName());
+        // jobs don't overlap, unlike directories
+        json.put("coldKB", coldUsage);
+        json.put("coldCount", coldCount);
+        json.put("jobs", coldJobs);
+        json.put("directories", coldDirectories);
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(json);
+    }
+
+    private static JSONObject toColdJSON(DiskItem item, UsageAge age) {
+        JSONObject json = UsageQuery.toJSON(item);
+        json.put("coldKB", item.getColdUsage(age));
+        json.put("coldCount", item.getColdCount(age));
+        return json;
+    }
+
+    /**
+     * The largest files, and the directories with the largest or most files of their own, found by the last
+     * completed scan.
+     */
+    public void doLargest(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        LargestEntries entries = largest.get();
+        JSONObject json = entries != null ? entries.toJSON() : new JSONObject();
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(json);
+    }
+
+    /**
+     * Stops the running scan, the next one resumes from where it stopped. Periodic scans start again after
+     * {@link #SCAN_INTERVAL}, a refresh starts one right away.
+     */
+    @RequirePOST
+    public void doCancel(StaplerRequest2 req, StaplerResponse2 res) throws IOException, ServletException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        UsageComputation uc = currentComputation;
+        if (uc != null) {
+            uc.cancel();
+        }
+        res.forwardToPreviousPage(req);
+    }
+
+    @RequirePOST
+    public void doClean(StaplerRequest2 req, StaplerResponse2 res) throws IOException, ServletException {
+        Jenkins jenkins = Jenkins.get();
+        final Job job = jenkins.getItemByFullName(req.getParameter("job"), Job.class);
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.logRotate();
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "logRotate failed", e);
+                }
+            }
+        });
+        res.forwardToPreviousPage(req);
+    }
+
+    /**
+     * Dry run of {@link #doBulkClean(StaplerRequest2, StaplerResponse2)}: the jobs it would clean up, with what
+     * their build discarder would reclaim, see {@link #selectCleanup(StaplerRequest2)} for the parameters.
+     */
+    public void doCleanupEstimate(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        List<BulkCleanup.Candidate> candidates;
+        try {
+            candidates = selectCleanup(req);
+        } catch (IllegalArgumentException e) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(BulkCleanup.toJSON(candidates));
+    }
+
+    /**
+     * Applies the build discarder of the selected jobs, {@link #CLEANUP_CONCURRENCY} jobs at a time, see
+     * {@link #selectCleanup(StaplerRequest2)} for the parameters. Each job usage is updated as soon as it is
+     * cleaned up, follow the progress with {@link #doCleanupProgress(StaplerRequest2, StaplerResponse2)}.
+     */
+    @RequirePOST
+    public void doBulkClean(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        BulkCleanup cleanup;
+        try {
+            cleanup = new BulkCleanup(selectCleanup(req));
+        } catch (IllegalArgumentException e) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        BulkCleanup previous = bulkCleanup.get();
+        if (previous != null && previous.isRunning() || !bulkCleanup.compareAndSet(previous, cleanup)) {
+            res.sendError(HttpServletResponse.SC_CONFLICT, "a cleanup is already running");
+            return;
+        }
+        cleanup.start(CLEANUP_CONCURRENCY, this::cleanJob);
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(cleanup.toJSON());
+    }
+
+    /**
+     * Progress of the running or last bulk cleanup.
+     */
+    public void doCleanupProgress(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        BulkCleanup cleanup = bulkCleanup.get();
+        JSONObject json = cleanup != null ? cleanup.toJSON() : new JSONObject();
+        if (cleanup == null) {
+            json.put("running", false);
+        }
+        res.setContentType("application/json;charset=UTF-8");
+        res.getWriter().print(json);
+    }
+
+    /**
+     * Stops the running bulk cleanup once the jobs being cleaned up are done.
+     */
+    @RequirePOST
+    public void doCancelCleanup(StaplerRequest2 req, StaplerResponse2 res) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        BulkCleanup cleanup = bulkCleanup.get();
+        if (cleanup != null) {
+            cleanup.cancel();
+        }
+        doCleanupProgress(req, res);
+    }
+
+    /**
+     * Selects the jobs of a bulk cleanup, the largest first:
+     * <ul>
+     *     <li>{@code folder}: only the jobs in this folder, given by its full name, and its subfolders</li>
+     *     <li>{@code minUsage}: only the jobs using at least this size, see {@link UsageThresholds#parseSize(String)}</li>
+     *     <li>{@code minAge}: only the jobs not built for at least this number of days</li>
+     * </ul>
+     *
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    private List<BulkCleanup.Candidate> selectCleanup(StaplerRequest2 req) {
+        String folder = Util.fixEmpty(req.getParameter("folder"));
+        String minUsageParameter = Util.fixEmpty(req.getParameter("minUsage"));
+        long minUsage = minUsageParameter == null ? 0 : UsageThresholds.parseSize(minUsageParameter);
+        if (minUsage < 0) {
+            throw new IllegalArgumentException("minUsage must be a size");
+        }
+        String minAgeParameter = Util.fixEmpty(req.getParameter("minAge"));
+        int minAge;
+        try {
+            minAge = minAgeParameter == null ? 0 : Integer.parseInt(minAgeParameter);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("minAge must be a number of days");
+        }
+        prepareRead();
+        long now = System.currentTimeMillis();
+        DirectoryIndex index = getDirectoryIndex();
+        List<BulkCleanup.Candidate> candidates = new ArrayList<>();
+        try (ACLContext old = ACL.as2(ACL.SYSTEM2)) {
+            Jenkins jenkins = Jenkins.get();
+            for (JobDiskItem item : jobs.sorted(UsageQuery.Sort.USAGE.descending)) {
+                long usage = item.getUsage() != null ? item.getUsage() : 0;
+                if (folder != null && !item.getFullName().startsWith(folder + "/") || usage < minUsage) {
+                    continue;
+                }
+                Job<?, ?> job = jenkins.getItemByFullName(item.getFullName(), Job.class);
+                if (job == null) {
+                    continue;
+                }
+                if (minAge > 0) {
+                    Run<?, ?> lastBuild = job.getLastBuild();
+                    if (lastBuild != null && lastBuild.getTimeInMillis() > now - TimeUnit.DAYS.toMillis(minAge)) {
+                        continue;
+                    }
+                }
+                candidates.add(new BulkCleanup.Candidate(job, usage, BulkCleanup.estimate(job, index, now)));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Applies the build discarder of a job, then walks it again, reusing its completed builds from the index,
+     * and updates its usage. Runs on a cleanup thread, the usage is updated on the events thread after
+     * the deleted builds events.
+     *
+     * @return the usage reclaimed in KiB
+     */
+    private long cleanJob(BulkCleanup.Candidate candidate) throws IOException, InterruptedException {
+        final Job<?, ?> job = candidate.job;
+        final Path dir = job.getRootDir().toPath().toAbsolutePath();
+        final Path buildsDir = job.getBuildDir().toPath().toAbsolutePath();
+        TotalsListener listener = new TotalsListener();
+        try (ACLContext old = ACL.as2(ACL.SYSTEM2)) {
+            long start = System.nanoTime();
+            job.logRotate();
+            // the build discarder deletes all the builds at once and can't be throttled, pause afterwards as if
+            // the deleted files had been walked so the next jobs of the cleanup are slowed down accordingly
+            throttle.pause(candidate.reclaimableCount, System.nanoTime() - start);
+
+            Set<Path> runningBuilds = getRunningBuildsDirectories(Jenkins.get());
+            UsageComputation uc = new UsageComputation(List.of(dir));
+            uc.setThrottle(throttle);
+            // the links of the job were counted by the last scan, they're counted again until the next one
+            uc.setHardLinks(createHardLinkTracker(null));
+            uc.setMetrics(cumulativeMetrics);
+            uc.setCategorized(CATEGORIES);
+            uc.setIndex(getDirectoryIndex(), 0);
+            uc.setSealedDirectories(path -> buildsDir.equals(path.getParent()) && !runningBuilds.contains(path)
+                    && isBuildNumber(path.getFileName().toString()), COMPLETED_BUILDS_MAX_AGE);
+            uc.addListener(dir, listener);
+            uc.compute();
+        }
+        final long[] current = listener.totals;
+        final long usage = current[0] / 1024;
+        executeEvent(() -> {
+            synchronized (lockFor(dir)) {
+                JobDiskItem previous = jobs.get(job.getRootDir());
+                long[] categories = current.length > 2 ? Arrays.copyOfRange(current, 2, current.length) : null;
+                long[] categoryUsages = toCategoryUsages(categories);
+                long[] ageUsages = toAgeUsages(categories);
+                if (categoryUsages == null && previous != null) {
+                    // the job wasn't walked, keep its last breakdown
+                    categoryUsages = previous.getCategoryUsages();
+                    ageUsages = previous.getAgeUsages();
+                }
+                JobDiskItem item = new JobDiskItem(job, usage, current[1], categoryUsages, ageUsages);
+                jobs.put(item);
+                thresholds.check(item);
+                applyDirectoriesDelta(dir, usage - (previous != null ? previous.getUsage() : 0),
+                        current[1] - (previous != null ? previous.getCount() : 0),
+                        subtract(ageUsages, previous != null ? previous.getAgeUsages() : null));
+            }
+        });
+        return Math.max(0, candidate.usage - usage);
+    }
+
+    class JobUsageListener implements UsageComputation.CompletionListener {
+        final Job<?, ?> job;
+
+        JobUsageListener(Job<?, ?> job) {
+            this.job = job;
+        }
+
+        @Deprecated
+        public void onCompleted(Path dir, long usage) {
+            onCompleted(dir, usage, 0L);
+        }
+        @Override
+        public void onCompleted(Path dir, long usage, long count) {
+            onCompleted(dir, usage, count, null);
+        }
+
+        @Override
+        public void onCompleted(Path dir, long usage, long count, long[] categories) {
+            long[] categoryUsages = toCategoryUsages(categories);
+            long[] ageUsages = toAgeUsages(categories);
+            JobDiskItem item;
+            synchronized (lockFor(dir)) {
+                if (categoryUsages == null) {
+                    // the job wasn't walked, keep its last breakdown
+                    JobDiskItem previous = jobs.get(job.getRootDir());
+                    categoryUsages = previous != null ? previous.getCategoryUsages() : null;
+                    ageUsages = previous != null ? previous.getAgeUsages() : null;
+                }
+                item = new JobDiskItem(job, usage / 1024, count, categoryUsages, ageUsages);
+                jobs.put(item);
+            }
+            thresholds.check(item);
+            progress.incrementAndGet();
+        }
+    }
+
+    class FolderUsageListener implements UsageComputation.CompletionListener {
+        final Item folder;
+
+        FolderUsageListener(Item folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        public void onCompleted(Path dir, long usage, long count) {
+            FolderDiskItem item = new FolderDiskItem(folder, usage / 1024, count);
+            folders.put(item);
+            thresholds.check(item);
+            progress.incrementAndGet();
+        }
+    }
+
+    class DirectoryUsageListener implements UsageComputation.CompletionListener {
+        final String displayName;
+
+        DirectoryUsageListener(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public void onCompleted(Path dir, long usage) {
+            onCompleted(dir, usage, 0);
+        }
+        @Override
+        public void onCompleted(Path dir, long usage, long count) {
+            onCompleted(dir, usage, count, null);
+        }
+
+        @Override
+        public void onCompleted(Path dir, long usage, long count, long[] categories) {
+            long[] ageUsages = toAgeUsages(categories);
+            if (ageUsages == null) {
+                // the directory wasn't walked, keep its last ages
+                DiskItem previous = directories.get(dir.toFile());
+                ageUsages = previous != null ? previous.getAgeUsages() : null;
+            }
+            DiskItem item = new DiskItem(displayName, dir.toFile(), usage / 1024, count, ageUsages);
+            directories.put(item);
+            thresholds.check(item);
+            progress.incrementAndGet();
+        }
+    }
+
+    class RunningBuildUsageListener implements UsageComputation.CompletionListener {
+        @Override
+        public void onCompleted(Path dir, long usage, long count) {
+            onCompleted(dir, usage, count, null);
+        }
 
-    private long lastRunStart = 0;
+        @Override
+        public void onCompleted(Path dir, long usage, long count, long[] categories) {
+            runningBuildsUsages.put(dir, totals(usage, count, categories));
+            progress.incrementAndGet();
+        }
+    }
 
-    private long lastRunEnd = 0;
+    /**
+     * Keeps the totals of the directory of a single directory computation.
+     */
+    static final class TotalsListener implements UsageComputation.CompletionListener {
+        long[] totals = new long[2];
 
-    private transient final AtomicInteger progress = new AtomicInteger();
-    
-    private transient final AtomicInteger total = new AtomicInteger();
+        @Override
+        public void onCompleted(Path dir, long usage, long count) {
+            onCompleted(dir, usage, count, null);
+        }
 
-    @Override
-    public void start() throws Exception {
-        try {
-            load();
-        } catch (IOException e) {
-            logger.log(Level.WARNING, "Failed to load " + getConfigXml(), e);
+        @Override
+        public void onCompleted(Path dir, long usage, long count, long[] categories) {
+            totals = totals(usage, count, categories);
         }
-        if (isRunning()) {
-            // It's impossible, the plugin was just loaded. Let's reset end date
-            lastRunEnd = lastRunStart;
+    }
+
+    /**
+     * @return usage and file count, followed by the category vector if known
+     */
+    private static long[] totals(long usage, long count, long[] categories) {
+        long[] totals = new long[2 + (categories != null ? categories.length : 0)];
+        totals[0] = usage;
+        totals[1] = count;
+        if (categories != null) {
+            System.arraycopy(categories, 0, totals, 2, categories.length);
         }
+        return totals;
     }
 
-    @Override
-    public String getDisplayName() {
-        return "Disk Usage";
+    /**
+     * @param categories usage in bytes then file count of each category then of each age, or null
+     * @return usage in KiB then file count of each category, or null
+     */
+    private static long[] toCategoryUsages(long[] categories) {
+        return toUsages(categories, 0, UsageCategory.WIDTH);
     }
 
-    public Api getApi() {
-        return new Api(this);
+    /**
+     * @param categories usage in bytes then file count of each category then of each age, or null
+     * @return usage in KiB then file count of each age, or null
+     */
+    private static long[] toAgeUsages(long[] categories) {
+        return toUsages(categories, UsageCategory.AGES, UsageCategory.VECTOR_WIDTH);
     }
 
-    public void refreshData() {
-        if (!isRunning()) {
-            singleExecutorService.execute(computeDiskUsage);
+    private static long[] toUsages(long[] categories, int from, int to) {
+        if (categories == null || categories.length != UsageCategory.VECTOR_WIDTH) {
+            return null;
         }
+        long[] usages = Arrays.copyOfRange(categories, from, to);
+        for (int i = 0; i < usages.length; i += 2) {
+            usages[i] /= 1024;
+        }
+        return usages;
     }
 
-    public void refreshDataOnStartup() {
-         singleExecutorService.execute(computeDiskUsageOnStartup);
+    /**
+     * @param previous totals of a directory as returned by {@link #totals(long, long, long[])}
+     * @param current totals of the same directory
+     * @return the difference of their category then age usages in KiB and file counts, or null if either is unknown
+     */
+    private static long[] categoriesDelta(long[] previous, long[] current) {
+        if (previous.length != 2 + UsageCategory.VECTOR_WIDTH || current.length != 2 + UsageCategory.VECTOR_WIDTH) {
+            return null;
+        }
+        long[] delta = new long[UsageCategory.VECTOR_WIDTH];
+        for (int i = 0; i < delta.length; i += 2) {
+            delta[i] = current[2 + i] / 1024 - previous[2 + i] / 1024;
+            delta[i + 1] = current[3 + i] - previous[3 + i];
+        }
+        return delta;
     }
 
-    @Exported(inline = true)
-    public CopyOnWriteArrayList<DiskItem> getDirectoriesUsages() throws IOException {
-        if (System.currentTimeMillis() - lastRunEnd >= QUIET_PERIOD) {
-            refreshData();
-        }
-        return directoriesUsages;
+    /**
+     * Walks a completed build and applies the difference with its known usage to its job and
+     * parent directories, so they stay up to date until the next scan.
+     */
+    void onBuildFinalized(Run<?, ?> run) {
+        final Path dir = run.getRootDir().toPath().toAbsolutePath();
+        final Path jobDir = run.getParent().getRootDir().toPath().toAbsolutePath();
+        refreshSchedule.changed(dir);
+        executeEvent(() -> {
+            synchronized (lockFor(jobDir)) {
+                updateFinalizedBuild(dir);
+            }
+        });
     }
 
-    @Exported(inline = true)
-    public CopyOnWriteArrayList<JobDiskItem> getJobsUsages() throws IOException {
-        if (System.currentTimeMillis() - lastRunEnd >= QUIET_PERIOD) {
-            refreshData();
+    /**
+     * Walks a completed build, which must be locked, and applies the difference with its known usage.
+     */
+    private void updateFinalizedBuild(Path dir) {
+        long[] previous = getKnownBuildUsage(dir);
+        DirectoryIndex index = getDirectoryIndex();
+        index.remove(dir);
+        TotalsListener listener = new TotalsListener();
+        UsageComputation uc = new UsageComputation(List.of(dir));
+        uc.setThrottle(throttle);
+        uc.setHardLinks(createHardLinkTracker(scannedHardLinks.get()));
+        uc.setMetrics(cumulativeMetrics);
+        uc.setCategorized(CATEGORIES);
+        uc.setIndex(index, 0);
+        uc.setSealedDirectories(dir::equals, COMPLETED_BUILDS_MAX_AGE);
+        uc.addListener(dir, listener);
+        try {
+            uc.compute();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to compute disk usage of " + dir, e);
+            return;
         }
-        return jobsUsages;
+        long[] current = listener.totals;
+        applyDelta(dir, current[0] / 1024 - previous[0] / 1024, current[1] - previous[1],
+                categoriesDelta(previous, current));
     }
 
-    @Exported
-    public long getLastRunStart() {
-        return lastRunStart;
+    /**
+     * Removes the usage of a build which is about to be deleted from its job and parent directories.
+     */
+    void onBuildDeleted(Run<?, ?> run) {
+        final Path dir = run.getRootDir().toPath().toAbsolutePath();
+        final Path jobDir = run.getParent().getRootDir().toPath().toAbsolutePath();
+        refreshSchedule.changed(dir);
+        executeEvent(() -> {
+            synchronized (lockFor(jobDir)) {
+                long[] previous = getKnownBuildUsage(dir);
+                getDirectoryIndex().remove(dir);
+                applyDelta(dir, -(previous[0] / 1024), -previous[1],
+                        categoriesDelta(previous, new long[previous.length]));
+            }
+        });
     }
 
-    @Exported
-    public long getLastRunEnd() {
-        return lastRunEnd;
+    void onItemCreated(Item item) {
+        if (item instanceof ItemGroup && !(item instanceof Job)) {
+            // so the usage of the items created in this folder is added to it until the next scan
+            executeEvent(() -> folders.putIfAbsent(new FolderDiskItem(item, 0L, 0L)));
+            return;
+        }
+        if (!(item instanceof Job) || !(item instanceof TopLevelItem)) {
+            return;
+        }
+        final Job<?, ?> job = (Job<?, ?>) item;
+        executeEvent(() -> {
+            final Path dir = job.getRootDir().toPath().toAbsolutePath();
+            TotalsListener listener = new TotalsListener();
+            UsageComputation uc = new UsageComputation(List.of(dir));
+            uc.setThrottle(throttle);
+            uc.setHardLinks(createHardLinkTracker(scannedHardLinks.get()));
+            uc.setMetrics(cumulativeMetrics);
+            uc.setCompactWalker(true);
+            uc.setCategorized(CATEGORIES);
+            uc.addListener(dir, listener);
+            try {
+                uc.compute();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to compute disk usage of " + dir, e);
+                return;
+            }
+            long[] current = listener.totals;
+            long[] categories = current.length > 2 ? Arrays.copyOfRange(current, 2, current.length) : null;
+            JobDiskItem jobDiskItem = new JobDiskItem(job, current[0] / 1024, current[1],
+                    toCategoryUsages(categories), toAgeUsages(categories));
+            synchronized (lockFor(dir)) {
+                if (jobs.putIfAbsent(jobDiskItem)) {
+                    thresholds.check(jobDiskItem);
+                    applyDirectoriesDelta(dir, jobDiskItem.getUsage(), jobDiskItem.getCount(),
+                            jobDiskItem.getAgeUsages());
+                }
+            }
+        });
     }
 
-    public String getSince() {
-        return Util.getTimeSpanString(System.currentTimeMillis() - lastRunEnd);
+    void onItemDeleted(Item item) {
+        final Path dir = item.getRootDir().toPath().toAbsolutePath();
+        executeEvent(() -> {
+            thresholds.remove(dir.toFile());
+            for (FolderDiskItem folderDiskItem : folders.snapshot()) {
+                if (folderDiskItem.getPath().toPath().toAbsolutePath().startsWith(dir)) {
+                    folders.remove(folderDiskItem);
+                }
+            }
+            for (JobDiskItem jobDiskItem : jobs.snapshot()) {
+                Path jobDir = jobDiskItem.getPath().toPath().toAbsolutePath();
+                if (!jobDir.startsWith(dir)) {
+                    continue;
+                }
+                synchronized (lockFor(jobDir)) {
+                    if (jobs.remove(jobDiskItem)) {
+                        applyDirectoriesDelta(dir, -jobDiskItem.getUsage(), -jobDiskItem.getCount(),
+                                subtract(null, jobDiskItem.getAgeUsages()));
+                    }
+                }
+            }
+        });
     }
 
-    public String getDuration() {
-        return Util.getTimeSpanString(lastRunEnd - lastRunStart);
+    void onItemLocationChanged(String oldFullName, String newFullName) {
+        executeEvent(() -> {
+            try (ACLContext old = ACL.as2(ACL.SYSTEM2)) {
+                Jenkins jenkins = Jenkins.get();
+                // the moved item itself, whose usage moves from its old parents to its new ones
+                DiskItem movedFrom = null;
+                DiskItem movedTo = null;
+                for (JobDiskItem jobDiskItem : jobs.snapshot()) {
+                    String fullName = jobDiskItem.getFullName();
+                    if (!fullName.equals(oldFullName) && !fullName.startsWith(oldFullName + "/")) {
+                        continue;
+                    }
+                    Job<?, ?> job = jenkins.getItemByFullName(
+                            newFullName + fullName.substring(oldFullName.length()), Job.class);
+                    if (job != null && jobs.remove(jobDiskItem)) {
+                        thresholds.remove(jobDiskItem.getPath());
+                        JobDiskItem moved = new JobDiskItem(job, jobDiskItem.getUsage(), jobDiskItem.getCount(),
+                                jobDiskItem.getCategoryUsages(), jobDiskItem.getAgeUsages());
+                        jobs.put(moved);
+                        thresholds.check(moved);
+                        if (fullName.equals(oldFullName)) {
+                            movedFrom = jobDiskItem;
+                            movedTo = moved;
+                        }
+                    }
+                }
+                for (FolderDiskItem folderDiskItem : folders.snapshot()) {
+                    String fullName = folderDiskItem.getFullName();
+                    if (!fullName.equals(oldFullName) && !fullName.startsWith(oldFullName + "/")) {
+                        continue;
+                    }
+                    Item folder = jenkins.getItemByFullName(newFullName + fullName.substring(oldFullName.length()));
+                    if (folder instanceof ItemGroup && folders.remove(folderDiskItem)) {
+                        thresholds.remove(folderDiskItem.getPath());
+                        FolderDiskItem moved = new FolderDiskItem(folder, folderDiskItem.getUsage(), folderDiskItem.getCount());
+                        folders.put(moved);
+                        thresholds.check(moved);
+                        if (fullName.equals(oldFullName)) {
+                            movedFrom = folderDiskItem;
+                            movedTo = moved;
+                        }
+                    }
+                }
+                if (movedFrom != null && movedFrom.getUsage() != null) {
+                    long count = movedFrom.getCount() != null ? movedFrom.getCount() : 0;
+                    long[] ages = movedFrom.getAgeUsages();
+                    applyDirectoriesDelta(movedFrom.getPath().toPath().getParent(), -movedFrom.getUsage(), -count,
+                            subtract(null, ages));
+                    applyDirectoriesDelta(movedTo.getPath().toPath().getParent(), movedFrom.getUsage(), count, ages);
+                }
+            }
+        });
     }
 
-    public boolean isRunning() {
-        return lastRunEnd < lastRunStart;
+    private long[] getKnownBuildUsage(Path dir) {
+        long[] usage = runningBuildsUsages.remove(dir);
+        if (usage != null) {
+            return usage;
+        }
+        DirectoryIndex.Entry entry = getDirectoryIndex().get(dir);
+        if (entry != null && entry.isSealed()) {
+            return totals(entry.getUsage(), entry.getCount(), entry.categories);
+        }
+        // not walked yet, nothing in any category nor age either
+        return new long[2 + UsageCategory.VECTOR_WIDTH];
     }
 
-    @RequirePOST
-    public void doRefresh(StaplerRequest2 req, StaplerResponse2 res) throws IOException, ServletException {
-        refreshData();
-        res.forwardToPreviousPage(req);
+    /**
+     * Adds a usage difference to the job, folders and directories containing the given path.
+     *
+     * @param categoriesDelta difference of the usage in KiB and file count of each category then of each age,
+     *                        or null if unknown
+     */
+    private void applyDelta(Path dir, long usageKB, long count, long[] categoriesDelta) {
+        if (usageKB == 0 && count == 0) {
+            return;
+        }
+        for (Path parent = dir; parent != null; parent = parent.getParent()) {
+            JobDiskItem job = jobs.update(parent.toFile(), item -> {
+                JobDiskItem updated = item.withUsage(
+                        Math.max(0, item.getUsage() + usageKB), Math.max(0, item.getCount() + count));
+                long[] categories = item.getCategoryUsages();
+                if (categoriesDelta == null || categories == null) {
+                    return updated;
+                }
+                categories = categories.clone();
+                for (int i = 0; i < categories.length; i++) {
+                    categories[i] = Math.max(0, categories[i] + categoriesDelta[i]);
+                }
+                long[] ages = item.getAgeUsages();
+                if (ages != null) {
+                    ages = ages.clone();
+                    for (int i = 0; i < ages.length; i++) {
+                        ages[i] = Math.max(0, ages[i] + categoriesDelta[UsageCategory.AGES + i]);
+                    }
+                }
+                return updated.withCategories(categories).withAges(ages);
+            });
+            if (job != null) {
+                thresholds.check(job);
+            }
+        }
+        applyDirectoriesDelta(dir, usageKB, count, categoriesDelta != null
+                ? Arrays.copyOfRange(categoriesDelta, UsageCategory.AGES, categoriesDelta.length) : null);
     }
 
-    @RequirePOST
-    public void doClean(StaplerRequest2 req, StaplerResponse2 res) throws IOException, ServletException {
-        Jenkins jenkins = Jenkins.get();
-        final Job job = jenkins.getItemByFullName(req.getParameter("job"), Job.class);
-        Timer.get().submit(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    job.logRotate();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "logRotate failed", e);
+    /**
+     * Adds a usage difference to the folders and directories containing the given path.
+     *
+     * @param agesDelta difference of the usage in KiB and file count of each age, or null if unknown, the ages
+     *                  of the directories are then kept as is until the next scan
+     */
+    private void applyDirectoriesDelta(Path dir, long usageKB, long count, long[] agesDelta) {
+        for (Path parent = dir; parent != null; parent = parent.getParent()) {
+            FolderDiskItem folder = folders.update(parent.toFile(), item -> item.withUsage(
+                    Math.max(0, item.getUsage() + usageKB), Math.max(0, item.getCount() + count)));
+            if (folder != null) {
+                thresholds.check(folder);
+            }
+            DiskItem directory = directories.update(parent.toFile(), item -> {
+                DiskItem updated = item.withUsage(
+                        Math.max(0, item.getUsage() + usageKB), Math.max(0, item.getCount() + count));
+                long[] ages = item.getAgeUsages();
+                if (agesDelta == null || ages == null) {
+                    return updated;
                 }
+                ages = ages.clone();
+                for (int i = 0; i < ages.length; i++) {
+                    ages[i] = Math.max(0, ages[i] + agesDelta[i]);
+                }
+                return updated.withAges(ages);
+            });
+            if (directory != null) {
+                thresholds.check(directory);
             }
-        });
-        res.forwardToPreviousPage(req);
+        }
     }
 
-    class JobUsageListener implements UsageComputation.CompletionListener {
-        final Job<?, ?> job;
-
-        JobUsageListener(Job<?, ?> job) {
-            this.job = job;
+    /**
+     * @param vector a vector, or null for none
+     * @param other a vector to subtract, or null for none
+     * @return the difference, or null if both are null
+     */
+    private static long[] subtract(long[] vector, long[] other) {
+        if (other == null) {
+            return vector;
+        }
+        long[] difference = vector != null ? vector.clone() : new long[other.length];
+        for (int i = 0; i < other.length; i++) {
+            difference[i] -= other[i];
         }
+        return difference;
+    }
 
-        @Deprecated
-        public void onCompleted(Path dir, long usage) {
-            onCompleted(dir, usage, 0L);
+    private static IoThrottle createThrottle() {
+        switch (THROTTLE) {
+            case "tokenbucket":
+                return new IoThrottle.TokenBucket(THROTTLE_RATE);
+            case "adaptive":
+                return new IoThrottle.Adaptive(Math.min(THROTTLE_MIN_RATE, THROTTLE_RATE), THROTTLE_RATE);
+            case "dutycycle":
+                return new IoThrottle.DutyCycle();
+            default:
+                logger.log(Level.WARNING, "Unknown throttle policy {0}, using dutycycle", THROTTLE);
+                return new IoThrottle.DutyCycle();
         }
-        @Override
-        public void onCompleted(Path dir, long usage, long count) {
-            JobDiskItem jobDiskItem = new JobDiskItem(job, usage / 1024, count);
-            jobsUsages.remove(jobDiskItem);
-            jobsUsages.add(jobDiskItem);
-            progress.incrementAndGet();
+    }
+
+    /**
+     * Parses {@link #SCANNERS}, ignoring the unknown scanners.
+     */
+    private static Map<Path, UsageScanner> getScanners() {
+        Map<Path, UsageScanner> scanners = new HashMap<>();
+        for (String entry : SCANNERS.split(",")) {
+            int separator = entry.lastIndexOf('=');
+            if (separator < 0) {
+                if (!entry.isBlank()) {
+                    logger.log(Level.WARNING, "Ignoring scanner {0}, expecting path=id", entry);
+                }
+                continue;
+            }
+            String id = entry.substring(separator + 1).trim();
+            UsageScanner scanner = UsageScanner.get(id);
+            if (scanner == null) {
+                logger.log(Level.WARNING, "Ignoring unknown scanner {0}", id);
+                continue;
+            }
+            scanners.put(ScanPlan.normalize(Paths.get(entry.substring(0, separator).trim())), scanner);
         }
+        return scanners;
     }
 
-    class DirectoryUsageListener implements UsageComputation.CompletionListener {
-        final String displayName;
+    /**
+     * @param seen tracker of a completed scan whose links are not counted again, or null
+     * @return a tracker for a new computation, or null to count the apparent size of files
+     */
+    private static HardLinkTracker createHardLinkTracker(HardLinkTracker seen) {
+        return HARD_LINK_AWARE ? new HardLinkTracker(seen) : null;
+    }
 
-        DirectoryUsageListener(String displayName) {
-            this.displayName = displayName;
+    private synchronized UsageHistory getUsageHistory() {
+        if (usageHistory == null) {
+            usageHistory = UsageHistory.load(getUsageHistoryFile());
         }
+        return usageHistory;
+    }
 
-        public void onCompleted(Path dir, long usage) {
-            onCompleted(dir, usage, 0);
-        }
-        @Override
-        public void onCompleted(Path dir, long usage, long count) {
-            DiskItem diskItem = new DiskItem(displayName, dir.toFile(), usage / 1024, count);
-            directoriesUsages.remove(diskItem);
-            directoriesUsages.add(diskItem);
-            progress.incrementAndGet();
+    private synchronized DirectoryIndex getDirectoryIndex() {
+        if (directoryIndex == null) {
+            directoryIndex = DirectoryIndex.load(getDirectoryIndexFile());
         }
+        return directoryIndex;
     }
 
     private void registerJobs(UsageComputation uc) throws IOException, InterruptedException {
         Jenkins jenkins = Jenkins.get();
 
         // Remove useless entries for jobs
-        for (JobDiskItem item : jobsUsages) {
+        for (JobDiskItem item : jobs.snapshot()) {
             if (!item.getPath().exists() || jenkins.getItemByFullName(item.getFullName(), Job.class) == null) {
-                jobsUsages.remove(item);
+                jobs.remove(item);
+            }
+        }
+        for (FolderDiskItem item : folders.snapshot()) {
+            if (!item.getPath().exists() || !(jenkins.getItemByFullName(item.getFullName()) instanceof ItemGroup)) {
+                folders.remove(item);
             }
         }
 
         // Add or update entries for jobs
+        Set<Path> buildsDirectories = new HashSet<>();
         for (Job job : jenkins.getAllItems(Job.class)) {
             if (job instanceof TopLevelItem) {
                 uc.addListener(job.getRootDir().toPath(), new JobUsageListener(job));
+                buildsDirectories.add(job.getBuildDir().toPath().toAbsolutePath());
+            }
+        }
+
+        // Folders contain the directories of their items, their subtree total is a rollup of them
+        for (Item item : jenkins.getAllItems(Item.class)) {
+            if (item instanceof ItemGroup && !(item instanceof Job)) {
+                uc.addListener(item.getRootDir().toPath(), new FolderUsageListener(item));
+            }
+        }
+
+        // Completed builds don't change anymore, their usage can be cached
+        Set<Path> runningBuilds = getRunningBuildsDirectories(jenkins);
+        for (Path runningBuild : runningBuilds) {
+            uc.addListener(runningBuild, new RunningBuildUsageListener());
+        }
+        uc.setSealedDirectories(dir -> {
+            Path parent = dir.getParent();
+            return parent != null && buildsDirectories.contains(parent) && !runningBuilds.contains(dir)
+                    && isBuildNumber(dir.getFileName().toString());
+        }, COMPLETED_BUILDS_MAX_AGE);
+    }
+
+    /**
+     * Reuses the totals of the items which don't need to be walked by this scan, and records the totals of all of them.
+     */
+    private void scheduleRefresh(UsageComputation uc, Map<Path, long[]> knownTotals) {
+        final long scanStart = lastRunStart;
+        Set<Path> leaves = RefreshSchedule.getLeaves(uc.getRegisteredPaths());
+        Map<Path, long[]> fresh = refreshSchedule.getFresh(leaves, scanStart);
+        logger.log(Level.FINE, "Reusing the usage of {0} unchanged items out of {1}",
+                new Object[] {fresh.size(), leaves.size()});
+        knownTotals.putAll(fresh);
+        UsageComputation.CompletionListener listener = new UsageComputation.CompletionListener() {
+            @Override
+            public void onCompleted(Path dir, long usage, long count) {
+                refreshSchedule.completed(dir, usage, count, scanStart);
+            }
+
+            @Override
+            public void onCompleted(Path dir, long usage, long count, long[] categories) {
+                refreshSchedule.completed(dir, usage, count, categories, scanStart);
+            }
+        };
+        for (Path leaf : leaves) {
+            uc.addListener(leaf, listener);
+        }
+    }
+
+    /**
+     * Looks at the executors rather than at the jobs, so build records don't get loaded.
+     */
+    private static Set<Path> getRunningBuildsDirectories(Jenkins jenkins) {
+        Set<Path> running = new HashSet<>();
+        for (Computer computer : jenkins.getComputers()) {
+            for (hudson.model.Executor executor : computer.getAllExecutors()) {
+                Queue.Executable executable = executor.getCurrentExecutable();
+                if (executable instanceof Run) {
+                    running.add(((Run<?, ?>) executable).getRootDir().toPath().toAbsolutePath());
+                }
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Runs {@link #computeWorkspacesUsage(Jenkins)} once a scan is complete, as its own task on the computation thread.
+     */
+    private transient final Runnable computeWorkspacesUsage = () -> {
+        try (ACLContext old = ACL.as2(ACL.SYSTEM2)) {
+            computeWorkspacesUsage(Jenkins.get());
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Unable to compute workspaces disk usage", e);
+        }
+    };
+
+    /**
+     * Measures the workspaces of all the jobs on each online agent, the agents walk their disks concurrently.
+     */
+    private void computeWorkspacesUsage(Jenkins jenkins) throws InterruptedException {
+        List<Job> allJobs = new ArrayList<>();
+        for (Job job : jenkins.getAllItems(Job.class)) {
+            if (job instanceof TopLevelItem) {
+                allJobs.add(job);
+            }
+        }
+        Set<String> nodeNames = new HashSet<>();
+        Map<String, List<Job>> nodeJobs = new HashMap<>();
+        Map<String, List<String>> nodePaths = new HashMap<>();
+        Map<String, Future<long[][]>> futures = new HashMap<>();
+        for (Node node : jenkins.getNodes()) {
+            nodeNames.add(node.getNodeName());
+            // null when the agent is offline
+            FilePath workspaceRoot = node instanceof Slave ? ((Slave) node).getWorkspaceRoot() : null;
+            if (workspaceRoot == null) {
+                continue;
+            }
+            List<Job> jobsOnNode = new ArrayList<>();
+            List<String> paths = new ArrayList<>();
+            for (Job job : allJobs) {
+                FilePath workspace = node.getWorkspaceFor((TopLevelItem) job);
+                if (workspace != null) {
+                    jobsOnNode.add(job);
+                    paths.add(workspace.getRemote());
+                }
+            }
+            try {
+                futures.put(node.getNodeName(), workspaceRoot.actAsync(new WorkspaceUsageCallable(paths)));
+                nodeJobs.put(node.getNodeName(), jobsOnNode);
+                nodePaths.put(node.getNodeName(), paths);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to compute workspaces disk usage on " + node.getNodeName(), e);
             }
         }
+
+        long deadline = System.currentTimeMillis() + WORKSPACES_TIMEOUT;
+        for (Map.Entry<String, Future<long[][]>> future : futures.entrySet()) {
+            String nodeName = future.getKey();
+            long[][] totals;
+            try {
+                totals = future.getValue().get(
+                        Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                logger.log(Level.WARNING, "Unable to compute workspaces disk usage on " + nodeName, e);
+                future.getValue().cancel(true);
+                continue;
+            }
+            List<Job> jobsOnNode = nodeJobs.get(nodeName);
+            List<String> paths = nodePaths.get(nodeName);
+            List<WorkspaceDiskItem> items = new ArrayList<>();
+            for (int i = 0; i < totals.length; i++) {
+                if (totals[i] != null) {
+                    Job job = jobsOnNode.get(i);
+                    items.add(new WorkspaceDiskItem(job.getFullDisplayName(), new File(paths.get(i)),
+                            totals[i][0] / 1024, totals[i][1], job.getFullName(), job.getUrl(), nodeName));
+                }
+            }
+            workspaces.put(nodeName, items);
+        }
+        // forget the agents which were removed
+        workspaces.keySet().retainAll(nodeNames);
+    }
+
+    private static boolean isBuildNumber(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private File getJenkinsBaseDirectory() throws NullPointerException {
@@ -276,9 +1826,9 @@ public class QuickDiskUsagePlugin extends Plugin implements ModelObject {
         directoriesToProcess.put(new File(System.getProperty("java.io.tmpdir")), "java.io.tmpdir");
 
         // Remove useless entries for directories
-        for (DiskItem item : directoriesUsages) {
+        for (DiskItem item : directories.snapshot()) {
             if (!item.getPath().exists() || !directoriesToProcess.containsKey(item.getPath())) {
-                directoriesUsages.remove(item);
+                directories.remove(item);
             }
         }
 
@@ -288,6 +1838,29 @@ public class QuickDiskUsagePlugin extends Plugin implements ModelObject {
         }
     }
 
+    /**
+     * Directory holding the plugin data files, other than its configuration.
+     */
+    File getStorageDirectory() {
+        return new File(Jenkins.get().getRootDir(), "cloudbees-disk-usage-simple");
+    }
+
+    private File getDirectoryIndexFile() {
+        return new File(getStorageDirectory(), "directories.idx");
+    }
+
+    private File getCheckpointFile() {
+        return new File(getStorageDirectory(), "checkpoint.bin");
+    }
+
+    private File getUsageHistoryFile() {
+        return new File(getStorageDirectory(), "history.bin");
+    }
+
+    private File getUsageSnapshotFile() {
+        return new File(getStorageDirectory(), "usages.bin");
+    }
+
     // unused
     public int getItemsCount() {
         return total.intValue();
@@ -312,50 +1885,126 @@ public class QuickDiskUsagePlugin extends Plugin implements ModelObject {
             logger.fine("Re-estimating disk usage");
             progress.set(0);
             lastRunStart = System.currentTimeMillis();
+            runningBuildsUsages.clear();
+            ScanMetrics metrics = new ScanMetrics();
+            synchronized (scanMetrics) {
+                scanMetrics.addFirst(metrics);
+                if (scanMetrics.size() > SCAN_METRICS_HISTORY) {
+                    scanMetrics.removeLast();
+                }
+            }
+            ScanCheckpoint checkpoint = ScanCheckpoint.load(getCheckpointFile());
+            boolean resumed = checkpoint != null && lastRunStart - checkpoint.getScanStart() < CHECKPOINT_MAX_AGE;
+            if (!resumed) {
+                checkpoint = new ScanCheckpoint(getCheckpointFile(), lastRunStart);
+            }
             Jenkins jenkins = Jenkins.get();
+            Map<Path, UsageScanner> scanners = getScanners();
             try (ACLContext old = ACL.as2(ACL.SYSTEM2)) {
                 UsageComputation uc = new UsageComputation(Arrays.asList(Paths.get(System.getProperty("java.io.tmpdir")), jenkins.getRootDir().toPath()));
+                uc.setThrottle(throttle);
+                HardLinkTracker hardLinks = createHardLinkTracker(null);
+                uc.setHardLinks(hardLinks);
+                uc.setMetrics(metrics);
+                uc.setCategorized(CATEGORIES);
+                LargestEntries ranking = LARGEST > 0 ? new LargestEntries(LARGEST) : null;
+                uc.setLargest(ranking);
+                uc.setScanners(scanners);
+                uc.setCheckpoint(checkpoint);
                 registerJobs(uc);
                 registerDirectories(uc);
                 total.set(uc.getItemsCount());
-                uc.compute();
+                Map<Path, long[]> knownTotals = new HashMap<>();
+                if (ADAPTIVE_REFRESH) {
+                    scheduleRefresh(uc, knownTotals);
+                }
+                if (resumed) {
+                    Map<Path, long[]> completed = checkpoint.getCompleted(lastRunStart);
+                    logger.log(Level.INFO, "Resuming disk usage scan, {0} directories already walked",
+                            completed.size());
+                    knownTotals.putAll(completed);
+                }
+                uc.setKnownTotals(knownTotals);
+                uc.setIndex(getDirectoryIndex(), INCREMENTAL ? INCREMENTAL_MAX_AGE : 0);
+                currentComputation = uc;
+                try {
+                    uc.compute(PARALLELISM);
+                } finally {
+                    currentComputation = null;
+                }
+                if (uc.isCancelled()) {
+                    logger.info("Disk usage scan cancelled, it will resume from where it stopped");
+                    checkpoint.save();
+                    lastRunEnd = lastRunStart;
+                    nextScanNotBefore = System.currentTimeMillis() + SCAN_INTERVAL;
+                    return;
+                }
+                if (!resumed) {
+                    // directories walked before the scan was interrupted were not seen by this run,
+                    // nor those of the items skipped by the adaptive refresh, walked at least that often
+                    directoryIndex.retainSeenSince(ADAPTIVE_REFRESH ? lastRunStart - REFRESH_MAX_INTERVAL : lastRunStart);
+                }
+                if (ranking != null) {
+                    LargestEntries previous = largest.get();
+                    if (previous != null) {
+                        ranking.carryOver(previous);
+                    }
+                    largest.set(ranking);
+                }
+                scannedHardLinks.set(hardLinks);
                 
                 // Adds JENKINS_FS section with relevant disk usage info
                 File rootPath = getJenkinsBaseDirectory();
                 UsageComputation ucfs = new UsageComputation(Arrays.asList(rootPath.toPath()));
-                registerJobs(ucfs);
+                ucfs.setScanners(scanners);
                 registerDirectoriesFS(ucfs);
-                total.set(ucfs.getItemsCount());
                 ucfs.computeFS();
+                thresholds.checkFreeSpace("JENKINS_HOME", jenkins.getRootDir());
 
                 logger.fine("Finished re-estimating disk usage.");
 
                 lastRunEnd = System.currentTimeMillis();
+
+                List<DiskItem> items = new ArrayList<>(directories.snapshot());
+                items.addAll(jobs.snapshot());
+                items.addAll(folders.snapshot());
+                getUsageHistory().record(lastRunEnd, items);
+                checkpoint.delete();
+                if (WORKSPACES) {
+                    // the agents may be slow to answer, the scan is complete without them
+                    execute(computeWorkspacesUsage);
+                }
             } catch (IOException | InterruptedException e) {
                 logger.log(Level.WARNING, "Unable to run disk usage check", e);
                 lastRunEnd = lastRunStart;
+            } finally {
+                metrics.finish();
+                cumulativeMetrics.add(metrics);
+                saveAll();
             }
+        }
+
+        private void saveAll() {
             try {
                 // Save data
                 save();
             } catch (IOException e) {
                 logger.log(Level.WARNING, "Failed to save " + getConfigXml(), e);
             }
-        }
-    };
-
-    private transient final Runnable computeDiskUsageOnStartup = new Runnable() {
-        public void run() {
-            Jenkins jenkins = Jenkins.get();
-            while (jenkins.getInitLevel() != InitMilestone.COMPLETED) {
+            if (directoryIndex != null) {
                 try {
-                    logger.log(Level.FINE, "Waiting for Jenkins to be up before computing disk usage");
-                    Thread.sleep(3 * 60 * 1000);
-                } catch (InterruptedException e) {
-                    return;
+                    directoryIndex.save(getDirectoryIndexFile());
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to save " + getDirectoryIndexFile(), e);
+                }
+            }
+            if (usageHistory != null) {
+                try {
+                    usageHistory.save(getUsageHistoryFile());
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to save " + getUsageHistoryFile(), e);
                 }
             }
-            refreshData();
         }
     };
 }
@@ -23,23 +23,28 @@
  */
 package com.cloudbees.simplediskusage;
 
-import hudson.init.InitMilestone;
-import hudson.init.Initializer;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
 import jenkins.model.Jenkins;
 
-public class QuickDiskUsageInitializer {
-    /**
-     * Let's trigger an update after Jenkins is fully up.
-     *
-     * JOB_LOADED is the last milestone that can be triggered with an @Initializer,
-     * COMPLETED doesn't work. So, we queue the update and check that Jenkins is fully up in the runnable
-     * used in refreshDataOnStartup()
-     */
-    @Initializer(after = InitMilestone.JOB_LOADED)
-    public static void initialize() {
-        Jenkins jenkins = Jenkins.get();
-        QuickDiskUsagePlugin plugin = jenkins.getPlugin(QuickDiskUsagePlugin.class);
+/**
+ * Keeps job usages up to date as builds complete or get deleted, without waiting for the next scan.
+ */
+@Extension
+public class QuickDiskUsageRunListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onFinalized(Run<?, ?> run) {
+        QuickDiskUsagePlugin plugin = Jenkins.get().getPlugin(QuickDiskUsagePlugin.class);
+        if (plugin == null) return;
+        plugin.onBuildFinalized(run);
+    }
+
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        QuickDiskUsagePlugin plugin = Jenkins.get().getPlugin(QuickDiskUsagePlugin.class);
         if (plugin == null) return;
-        plugin.refreshDataOnStartup();
+        plugin.onBuildDeleted(run);
     }
 }
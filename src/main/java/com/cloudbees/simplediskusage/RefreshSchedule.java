@@ -0,0 +1,176 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which jobs and directories a scan walks again, from how their usage changed in the previous scans.
+ *
+ * An item whose usage or file count changed is walked by every scan. Each scan finding it unchanged doubles
+ * the delay before it is walked again, up to a maximum which bounds how stale its usage can get. In between,
+ * its last totals are reused by the walk of its parents.
+ *
+ * Only leaf items, which contain no other registered path, can be skipped: a job with a running build is
+ * always walked. Kept in memory only, every item is walked by the first scan after a restart.
+ */
+final class RefreshSchedule {
+
+    private final long minInterval;
+
+    private final long maxInterval;
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        final long usage;
+        final long count;
+        /**
+         * Category vector when the item was last walked, or null if unknown.
+         */
+        final long[] categories;
+        /**
+         * When the item was last walked, the ages of the category vector are counted from.
+         */
+        final long walked;
+        final long interval;
+        final long next;
+
+        Entry(long usage, long count, long[] categories, long walked, long interval, long next) {
+            this.usage = usage;
+            this.count = count;
+            this.categories = categories;
+            this.walked = walked;
+            this.interval = interval;
+            this.next = next;
+        }
+    }
+
+    /**
+     * @param minInterval delay before walking again an item found unchanged once
+     * @param maxInterval maximum delay before walking again an unchanged item
+     */
+    RefreshSchedule(long minInterval, long maxInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * @param registered all the paths with a listener
+     * @return the paths which contain no other registered path
+     */
+    static Set<Path> getLeaves(Collection<Path> registered) {
+        Set<Path> ancestors = new HashSet<>();
+        for (Path path : registered) {
+            for (Path p = path.getParent(); p != null && ancestors.add(p); p = p.getParent()) {
+                // add all parents until we reach one which is already known
+            }
+        }
+        Set<Path> leaves = new HashSet<>();
+        for (Path path : registered) {
+            if (!ancestors.contains(path)) {
+                leaves.add(path);
+            }
+        }
+        return leaves;
+    }
+
+    /**
+     * Forgets the items which are not candidates anymore, and returns those which don't need to be walked.
+     *
+     * @param candidates the items which could be skipped by the scan starting
+     * @param now start time of the scan
+     * @return usage and file count of the items which don't need to be walked, then their category vector
+     *         aged since they were walked if known
+     */
+    Map<Path, long[]> getFresh(Set<Path> candidates, long now) {
+        entries.keySet().retainAll(candidates);
+        Map<Path, long[]> fresh = new HashMap<>();
+        for (Map.Entry<Path, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (now < entry.next) {
+                long[] totals;
+                if (entry.categories != null) {
+                    totals = new long[2 + entry.categories.length];
+                    System.arraycopy(entry.categories, 0, totals, 2, entry.categories.length);
+                    UsageAge.shift(totals, 2 + UsageCategory.AGES, now - entry.walked);
+                } else {
+                    totals = new long[2];
+                }
+                totals[0] = entry.usage;
+                totals[1] = entry.count;
+                fresh.put(e.getKey(), totals);
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Records the totals of an item reported by the scan started at the given time, whether it was walked or not.
+     */
+    void completed(Path path, long usage, long count, long now) {
+        completed(path, usage, count, null, now);
+    }
+
+    /**
+     * Records the totals of an item reported by the scan started at the given time, whether it was walked or not.
+     *
+     * @param categories category vector reported, or null if unknown
+     */
+    void completed(Path path, long usage, long count, long[] categories, long now) {
+        entries.compute(path, (p, entry) -> {
+            if (entry == null || entry.usage != usage || entry.count != count) {
+                return new Entry(usage, count, categories, now, 0, now);
+            }
+            if (now < entry.next) {
+                // not walked, its totals were reused
+                return entry;
+            }
+            long interval = Math.min(maxInterval, Math.max(minInterval, entry.interval * 2));
+            return new Entry(usage, count, categories, now, interval, now + interval);
+        });
+    }
+
+    /**
+     * Makes the items containing the given path walked by the next scan, as it just changed.
+     */
+    void changed(Path path) {
+        for (Path p = path; p != null; p = p.getParent()) {
+            entries.remove(p);
+        }
+    }
+
+    /**
+     * @return number of items known
+     */
+    int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Progress of a scan: the registered paths already walked, with their totals and category vectors. It is saved
+ * periodically, so a scan interrupted by a restart or cancelled resumes without walking them again.
+ *
+ * The roots of the scan are registered paths too, the roots already walked are then skipped as a whole.
+ */
+final class ScanCheckpoint {
+
+    private static final int MAGIC = 0x53445543; // SDUC
+
+    private static final int VERSION = 2;
+
+    private static final long SAVE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final File file;
+
+    private final long scanStart;
+
+    private final Map<Path, Completed> completed = new ConcurrentHashMap<>();
+
+    private long lastSave = System.currentTimeMillis();
+
+    private static final class Completed {
+        /**
+         * When the path was walked, its file ages are counted from.
+         */
+        final long time;
+        /**
+         * Usage and count, then the category vector if known.
+         */
+        final long[] totals;
+
+        Completed(long time, long[] totals) {
+            this.time = time;
+            this.totals = totals;
+        }
+    }
+
+    ScanCheckpoint(File file, long scanStart) {
+        this.file = file;
+        this.scanStart = scanStart;
+    }
+
+    /**
+     * @return start time of the scan, before it was interrupted
+     */
+    long getScanStart() {
+        return scanStart;
+    }
+
+    /**
+     * @param now time the file ages are counted from
+     * @return usage and count of the registered paths already walked, then their category vector if known
+     */
+    Map<Path, long[]> getCompleted(long now) {
+        Map<Path, long[]> totals = new HashMap<>();
+        for (Map.Entry<Path, Completed> e : completed.entrySet()) {
+            long[] aged = e.getValue().totals.clone();
+            if (aged.length > 2) {
+                UsageAge.shift(aged, 2 + UsageCategory.AGES, now - e.getValue().time);
+            }
+            totals.put(e.getKey(), aged);
+        }
+        return totals;
+    }
+
+    /**
+     * Records a registered path as walked, and saves the checkpoint if it wasn't saved for a while.
+     *
+     * @param totals usage and count, then the category vector if known
+     */
+    void completed(Path dir, long[] totals) {
+        long now = System.currentTimeMillis();
+        completed.put(dir, new Completed(now, totals));
+        synchronized (this) {
+            if (now - lastSave < SAVE_INTERVAL) {
+                return;
+            }
+            lastSave = now;
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save scan checkpoint " + file, e);
+        }
+    }
+
+    /**
+     * @return the checkpoint of an unfinished scan, or null if there is none
+     */
+    static ScanCheckpoint load(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath());
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                logger.log(Level.INFO, "Ignoring scan checkpoint with unknown format {0}", file);
+                return null;
+            }
+            ScanCheckpoint checkpoint = new ScanCheckpoint(file, data.readLong());
+            int size = data.readInt();
+            for (int i = 0; i < size; i++) {
+                Path dir = Paths.get(data.readUTF());
+                long time = data.readLong();
+                long[] totals = new long[data.readInt()];
+                for (int j = 0; j < totals.length; j++) {
+                    totals[j] = data.readLong();
+                }
+                checkpoint.completed.put(dir, new Completed(time, totals));
+            }
+            return checkpoint;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to load scan checkpoint " + file + ", starting from scratch", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file which then replaces the previous one.
+     */
+    void save() throws IOException {
+        DataFiles.write(file, MAGIC, VERSION, data -> {
+            data.writeLong(scanStart);
+            Map<Path, Completed> snapshot = Map.copyOf(completed);
+            data.writeInt(snapshot.size());
+            for (Map.Entry<Path, Completed> e : snapshot.entrySet()) {
+                data.writeUTF(e.getKey().toString());
+                data.writeLong(e.getValue().time);
+                data.writeInt(e.getValue().totals.length);
+                for (long value : e.getValue().totals) {
+                    data.writeLong(value);
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets the checkpoint, once the scan is complete.
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static final Logger logger = Logger.getLogger(ScanCheckpoint.class.getName());
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a scan, updated concurrently by the walkers.
+ *
+ * Stat latencies are counted in buckets of powers of two microseconds. When the JDK walker reads
+ * the directories, the latency is the time between two entries of the walk.
+ */
+final class ScanMetrics {
+
+    private static final int BUCKETS = 24;
+
+    private final long start = System.currentTimeMillis();
+
+    private long end;
+
+    private final LongAdder directories = new LongAdder();
+
+    private final LongAdder files = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder throttleNanos = new LongAdder();
+
+    private final LongAdder checkFileNanos = new LongAdder();
+
+    private final LongAdder[] statLatency = new LongAdder[BUCKETS];
+
+    ScanMetrics() {
+        for (int i = 0; i < BUCKETS; i++) {
+            statLatency[i] = new LongAdder();
+        }
+    }
+
+    void directory() {
+        directories.increment();
+    }
+
+    void file(long size) {
+        files.increment();
+        bytes.add(size);
+    }
+
+    void failure() {
+        failures.increment();
+    }
+
+    void throttled(long nanos) {
+        throttleNanos.add(nanos);
+    }
+
+    void checkFile(long nanos) {
+        checkFileNanos.add(nanos);
+    }
+
+    void stat(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        statLatency[bucket].increment();
+    }
+
+    synchronized void finish() {
+        end = System.currentTimeMillis();
+    }
+
+    synchronized boolean isFinished() {
+        return end != 0;
+    }
+
+    /**
+     * Adds the counters of another scan to these ones.
+     */
+    void add(ScanMetrics other) {
+        directories.add(other.directories.sum());
+        files.add(other.files.sum());
+        bytes.add(other.bytes.sum());
+        failures.add(other.failures.sum());
+        throttleNanos.add(other.throttleNanos.sum());
+        checkFileNanos.add(other.checkFileNanos.sum());
+        for (int i = 0; i < BUCKETS; i++) {
+            statLatency[i].add(other.statLatency[i].sum());
+        }
+    }
+
+    JSONObject toJSON() {
+        long end;
+        synchronized (this) {
+            end = this.end;
+        }
+        long duration = (end != 0 ? end : System.currentTimeMillis()) - start;
+        JSONObject json = new JSONObject();
+        json.put("start", start);
+        if (end != 0) {
+            json.put("end", end);
+        }
+        json.put("durationMillis", duration);
+        json.put("directories", directories.sum());
+        json.put("files", files.sum());
+        json.put("bytes", bytes.sum());
+        json.put("failures", failures.sum());
+        json.put("directoriesPerSecond", perSecond(directories.sum(), duration));
+        json.put("filesPerSecond", perSecond(files.sum(), duration));
+        json.put("throttleSleepMillis", TimeUnit.NANOSECONDS.toMillis(throttleNanos.sum()));
+        json.put("checkFileMillis", TimeUnit.NANOSECONDS.toMillis(checkFileNanos.sum()));
+        JSONArray histogram = new JSONArray();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = statLatency[i].sum();
+            if (count > 0) {
+                JSONObject bucket = new JSONObject();
+                // bucket i counts latencies below 2^i microseconds, the last one everything above
+                if (i < BUCKETS - 1) {
+                    bucket.put("lessThanMicros", 1L << i);
+                }
+                bucket.put("count", count);
+                histogram.add(bucket);
+            }
+        }
+        json.put("statLatency", histogram);
+        return json;
+    }
+
+    private static double perSecond(long count, long millis) {
+        return millis <= 0 ? 0 : count * 1000.0 / millis;
+    }
+}
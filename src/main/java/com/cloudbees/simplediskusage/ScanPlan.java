@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plans the roots of a computation, so each directory is walked once: requested paths are normalized,
+ * and the duplicates and the paths inside another requested path are dropped. Their listeners are
+ * notified by the walk of their ancestor, as for any registered path.
+ */
+final class ScanPlan {
+
+    private ScanPlan() {
+    }
+
+    /**
+     * @return the roots to walk, absolute and normalized, in the requested order
+     */
+    static List<Path> roots(Collection<Path> requested) {
+        Set<Path> normalized = new LinkedHashSet<>();
+        for (Path path : requested) {
+            normalized.add(normalize(path));
+        }
+        List<Path> roots = new ArrayList<>(normalized.size());
+        for (Path path : normalized) {
+            Path ancestor = path.getParent();
+            while (ancestor != null && !normalized.contains(ancestor)) {
+                ancestor = ancestor.getParent();
+            }
+            if (ancestor == null) {
+                roots.add(path);
+            } else {
+                logger.log(Level.FINE, "{0} is walked as part of {1}", new Object[] {path, ancestor});
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * @return the path as walkers produce it, so registered paths can be matched
+     */
+    static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static final Logger logger = Logger.getLogger(ScanPlan.class.getName());
+}
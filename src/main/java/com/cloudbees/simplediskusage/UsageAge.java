@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long ago files were last modified, in buckets: within a day, a week, a month, six months, or before.
+ *
+ * Ages are taken from the modification time the walkers already read with the size, as of the start of the walk.
+ * The usages of directories reused from the {@link DirectoryIndex} are aged with {@link #shift(long[], int, long)}.
+ */
+public enum UsageAge {
+    DAY("day", TimeUnit.DAYS.toMillis(1)),
+    WEEK("week", TimeUnit.DAYS.toMillis(7)),
+    MONTH("month", TimeUnit.DAYS.toMillis(30)),
+    SIX_MONTHS("sixMonths", TimeUnit.DAYS.toMillis(182)),
+    OLDER("older", Long.MAX_VALUE);
+
+    private static final UsageAge[] VALUES = values();
+
+    /**
+     * Number of values of an age vector: the usage then the file count of each bucket.
+     */
+    static final int WIDTH = 2 * VALUES.length;
+
+    private final String name;
+
+    private final long maxAge;
+
+    UsageAge(String name, long maxAge) {
+        this.name = name;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return the name used in the API
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the bucket of the given name, or null if unknown
+     */
+    static UsageAge get(String name) {
+        for (UsageAge age : VALUES) {
+            if (age.name.equals(name)) {
+                return age;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param age time in milliseconds since the last modification, negative if modified after the walk started
+     * @return the ordinal of its bucket
+     */
+    static int bucket(long age) {
+        int i = 0;
+        while (age >= VALUES[i].maxAge) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Ages the buckets of an age vector by the given time. The files of a bucket are moved together to the bucket of
+     * its youngest possible age, so the usage of the old buckets is never overestimated.
+     *
+     * @param vector the vector to update
+     * @param offset position of the age vector
+     * @param elapsed time in milliseconds since the ages were computed
+     */
+    static void shift(long[] vector, int offset, long elapsed) {
+        if (elapsed <= 0) {
+            return;
+        }
+        // from the oldest bucket, so a moved bucket is not moved again
+        for (int i = VALUES.length - 2; i >= 0; i--) {
+            long minAge = i == 0 ? 0 : VALUES[i - 1].maxAge;
+            int target = bucket(minAge + elapsed);
+            if (target != i) {
+                vector[offset + 2 * target] += vector[offset + 2 * i];
+                vector[offset + 2 * target + 1] += vector[offset + 2 * i + 1];
+                vector[offset + 2 * i] = 0;
+                vector[offset + 2 * i + 1] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * What the files of a job use the disk for, told from their location in the build directories:
+ * {@code builds/<number>/archive}, {@code log} and {@code log.gz}, {@code workflow} and {@code workflow-completed},
+ * {@code junitResult.xml} and {@code stashes}. The other files are not categorized.
+ *
+ * The walkers track the state of each directory being walked, so only the names of the directories, and of the
+ * files directly in build directories, are looked at.
+ */
+public enum UsageCategory {
+    ARCHIVE,
+    LOG,
+    WORKFLOW,
+    JUNIT,
+    STASHES;
+
+    private static final UsageCategory[] VALUES = values();
+
+    /**
+     * Number of values of a category vector: the usage then the file count of each category.
+     */
+    static final int WIDTH = 2 * VALUES.length;
+
+    /**
+     * Position of the {@link UsageAge} vector which follows the category vector in the vectors of the walkers.
+     */
+    static final int AGES = WIDTH;
+
+    /**
+     * Number of values of the vectors of the walkers: the category vector, then the {@link UsageAge} vector.
+     */
+    static final int VECTOR_WIDTH = WIDTH + UsageAge.WIDTH;
+
+    /**
+     * State of a directory whose files are not categorized.
+     */
+    static final int NONE = -1;
+
+    /**
+     * State of a {@code builds} directory.
+     */
+    static final int BUILDS = -2;
+
+    /**
+     * State of a build directory, its files are categorized by name. Other states are the ordinal of the
+     * category of the whole subtree.
+     */
+    static final int BUILD = -3;
+
+    /**
+     * @return the name used in the API
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    static UsageCategory get(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * @param parentState state of the parent directory
+     * @return the state of the given directory
+     */
+    static int directoryState(int parentState, Path dir) {
+        if (parentState >= 0) {
+            return parentState;
+        }
+        Path name = dir.getFileName();
+        if (name == null) {
+            return NONE;
+        }
+        return directoryState(parentState, name.toString());
+    }
+
+    static int directoryState(int parentState, String name) {
+        if (parentState >= 0) {
+            return parentState;
+        }
+        if (parentState == BUILD) {
+            switch (name) {
+                case "archive":
+                    return ARCHIVE.ordinal();
+                case "workflow":
+                case "workflow-completed":
+                    return WORKFLOW.ordinal();
+                case "stashes":
+                    return STASHES.ordinal();
+                default:
+                    return NONE;
+            }
+        }
+        if (parentState == BUILDS) {
+            // build numbers, the permalinks are symbolic links which are not followed
+            return BUILD;
+        }
+        return name.equals("builds") ? BUILDS : NONE;
+    }
+
+    /**
+     * @param dirState state of the directory containing the file
+     * @return the category of the file, or -1 if none
+     */
+    static int fileCategory(int dirState, Path file) {
+        if (dirState >= 0) {
+            return dirState;
+        }
+        if (dirState != BUILD) {
+            return NONE;
+        }
+        switch (file.getFileName().toString()) {
+            case "log":
+            case "log.gz":
+                return LOG.ordinal();
+            case "junitResult.xml":
+                return JUNIT.ordinal();
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * @return the state of a directory where a walk starts, from the names of its parents
+     */
+    static int rootState(Path dir) {
+        int state = NONE;
+        for (int i = 0; i < dir.getNameCount(); i++) {
+            state = directoryState(state, dir.getName(i).toString());
+        }
+        return state;
+    }
+}
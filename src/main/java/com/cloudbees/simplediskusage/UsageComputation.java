@@ -2,64 +2,426 @@ package com.cloudbees.simplediskusage;
 
 import hudson.FilePath;
 import jenkins.model.Jenkins;
+import jenkins.util.JenkinsJVM;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Compute disk usage of a list of paths. Results are published using
  * listeners registered for interesting paths, so we only walk the disk once.
+ * Paths inside another one are not walked on their own, see {@link ScanPlan}.
  *
  * The walker process is throttled to prevent IO starvation for other Jenkins
- * tasks.
+ * tasks. When computed in parallel, all the walkers share the same {@link IoThrottle}.
+ *
+ * When a {@link DirectoryIndex} is set, directories whose modification time didn't
+ * change since they were last read are not read again, their files usage is taken
+ * from the index. Sealed directories, like completed builds, are not walked at all
+ * while their modification time doesn't change.
+ *
+ * The compact walker keeps the totals of the directories being walked in primitive arrays to reduce garbage
+ * on large trees. It always walks under an index, without one {@link Files#walkFileTree} can be used instead.
+ *
+ * Each root can also be scanned by a given {@link UsageScanner}, rather than as configured on the computation.
+ *
+ * A categorized computation also tracks the {@link UsageAge} of the files from the modification time read with
+ * their size, the category vector passed to the listeners is followed by the age vector.
  */
 public class UsageComputation {
-    private static final FilePath CHECK_FILE= new FilePath(Jenkins.get().getRootPath(), "simpleDiskUsageCheck");
-
     public interface CompletionListener {
         void onCompleted(Path dir, long usage, long count);
+
+        /**
+         * Called instead of {@link #onCompleted(Path, long, long)}, with the usage of each {@link UsageCategory}
+         * when the computation is categorized.
+         *
+         * @param categories usage and file count of each category in turn, in ordinal order, then of each
+         *                   {@link UsageAge} bucket, or null if unknown, for instance when the totals of the
+         *                   directory were reused
+         */
+        default void onCompleted(Path dir, long usage, long count, long[] categories) {
+            onCompleted(dir, usage, count);
+        }
+    }
+
+    private static final class CompositeListener implements CompletionListener {
+        private final CompletionListener first;
+        private final CompletionListener second;
+
+        CompositeListener(CompletionListener first, CompletionListener second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void onCompleted(Path dir, long usage, long count) {
+            onCompleted(dir, usage, count, null);
+        }
+
+        @Override
+        public void onCompleted(Path dir, long usage, long count, long[] categories) {
+            first.onCompleted(dir, usage, count, categories);
+            second.onCompleted(dir, usage, count, categories);
+        }
     }
 
     private final Map<Path, CompletionListener> listenerMap;
     private final List<Path> pathsToScan;
+    private int listenersCount;
+    private IoThrottle throttle = new IoThrottle.DutyCycle();
+    private DirectoryIndex index;
+    private long indexMaxAge;
+    private Predicate<Path> sealed = dir -> false;
+    private long sealedMaxAge;
+    private HardLinkTracker hardLinks;
+    private ScanMetrics metrics = new ScanMetrics();
+    private Map<Path, long[]> knownTotals = Map.of();
+    private ScanCheckpoint checkpoint;
+    private boolean compactWalker;
+    private boolean categorized;
+    private LargestEntries largest;
+    private Map<Path, UsageScanner> scanners = Map.of();
+    private int parallelism = 1;
+    private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+
+    /**
+     * How often a paused walker checks whether it was resumed.
+     */
+    private static final long PAUSED_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private enum State { RUNNING, PAUSED, CANCELLED }
 
     public UsageComputation(List<Path> pathsToScan) {
-        this.pathsToScan = pathsToScan;
+        this.pathsToScan = ScanPlan.roots(pathsToScan);
         this.listenerMap = new HashMap<>();
     }
 
+    /**
+     * Several listeners can be registered for the same path, they are notified in turn.
+     */
     public void addListener(Path path, CompletionListener listener) {
-        listenerMap.put(path.toAbsolutePath(), listener);
+        listenersCount++;
+        listenerMap.merge(ScanPlan.normalize(path), listener, CompositeListener::new);
+    }
+
+    /**
+     * Scan incrementally, reusing and updating the given index.
+     *
+     * @param index the index of the previous scans
+     * @param maxAge maximum time in milliseconds a directory content is reused without being read again,
+     *               0 to only reuse sealed directories
+     */
+    public void setIndex(DirectoryIndex index, long maxAge) {
+        this.index = index;
+        this.indexMaxAge = maxAge;
+    }
+
+    /**
+     * Declare the directories whose content is not expected to change, like completed builds.
+     * When an index is set, their usage is cached and reused as long as their modification time
+     * doesn't change.
+     *
+     * @param sealed tells whether a directory is sealed
+     * @param maxAge maximum time in milliseconds a sealed directory usage is reused without being walked again
+     */
+    public void setSealedDirectories(Predicate<Path> sealed, long maxAge) {
+        this.sealed = sealed;
+        this.sealedMaxAge = maxAge;
+    }
+
+    /**
+     * Throttle the walk with the given policy, which may be shared with other computations.
+     */
+    void setThrottle(IoThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Count the space used on the disk, hard links once, rather than the apparent size of files.
+     * Every directory is then read again: the index is still kept up to date, but its entries are not reused.
+     */
+    void setHardLinks(HardLinkTracker hardLinks) {
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     * Collect the scan counters in the given metrics, which may be shared with other computations.
+     */
+    void setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Reuse the totals of registered paths already walked, by an interrupted scan for instance.
+     * Their listeners are notified again, but they are not walked. When categorized, totals without
+     * their category vector, aged to the start of this computation, are ignored.
+     */
+    void setKnownTotals(Map<Path, long[]> knownTotals) {
+        this.knownTotals = knownTotals;
+    }
+
+    /**
+     * Record the registered paths walked in the given checkpoint.
+     */
+    void setCheckpoint(ScanCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Walk with {@link CompactWalk} rather than {@link Files#walkFileTree}, always the case when an index is set.
+     */
+    void setCompactWalker(boolean compactWalker) {
+        this.compactWalker = compactWalker;
+    }
+
+    /**
+     * Track the usage of each {@link UsageCategory} and {@link UsageAge}, see {@link CompletionListener#onCompleted(Path, long, long, long[])}.
+     * Not supported by {@link UsageScanner}s.
+     */
+    void setCategorized(boolean categorized) {
+        this.categorized = categorized;
+    }
+
+    /**
+     * Rank the largest files and directories walked in the given rankings, which may be shared with other
+     * computations. Of the directories reused from the index, only the largest file kept by the index is ranked,
+     * directories already walked are not ranked again.
+     * Not supported by {@link UsageScanner}s.
+     */
+    void setLargest(LargestEntries largest) {
+        this.largest = largest;
+    }
+
+    /**
+     * @return length of the totals vectors: usage, file count, then the category and age vectors if categorized
+     */
+    private int width() {
+        return categorized ? 2 + UsageCategory.VECTOR_WIDTH : 2;
+    }
+
+    /**
+     * Adds totals to others, only usage and file count if either has no category vector.
+     */
+    private static void add(long[] totals, long[] other) {
+        for (int i = 0, length = Math.min(totals.length, other.length); i < length; i++) {
+            totals[i] += other[i];
+        }
+    }
+
+    /**
+     * Adds a file to totals.
+     *
+     * @param dirState state of the directory containing the file, see {@link UsageCategory#directoryState(int, Path)}
+     * @param now start of the walk, the file age is counted from
+     */
+    private static void addFile(long[] totals, int dirState, Path file, BasicFileAttributes attrs, long usage,
+                                long now) {
+        totals[0] += usage;
+        totals[1]++;
+        if (totals.length > 2) {
+            categorize(totals, 2, dirState, file, attrs, usage, now);
+        }
+    }
+
+    /**
+     * Adds a file to the category and age vectors at the given position.
+     */
+    private static void categorize(long[] vector, int offset, int dirState, Path file, BasicFileAttributes attrs,
+                                   long usage, long now) {
+        int category = UsageCategory.fileCategory(dirState, file);
+        if (category >= 0) {
+            vector[offset + 2 * category] += usage;
+            vector[offset + 2 * category + 1]++;
+        }
+        int age = UsageAge.bucket(now - attrs.lastModifiedTime().toMillis());
+        vector[offset + UsageCategory.AGES + 2 * age] += usage;
+        vector[offset + UsageCategory.AGES + 2 * age + 1]++;
+    }
+
+    /**
+     * Scan the given roots with the given scanners, the other roots are walked as configured on this computation.
+     */
+    void setScanners(Map<Path, UsageScanner> scanners) {
+        this.scanners = scanners;
+    }
+
+    /**
+     * Stops the computation at the next directory. Listeners of the directories not completed yet
+     * are not notified.
+     */
+    public void cancel() {
+        state.set(State.CANCELLED);
+    }
+
+    public boolean isCancelled() {
+        return state.get() == State.CANCELLED;
+    }
+
+    /**
+     * Suspends the computation at the next directory until resumed, without losing what was walked so far.
+     * Has no effect once cancelled.
+     */
+    public void setPaused(boolean paused) {
+        if (paused) {
+            state.compareAndSet(State.RUNNING, State.PAUSED);
+        } else {
+            state.compareAndSet(State.PAUSED, State.RUNNING);
+        }
+    }
+
+    public boolean isPaused() {
+        return state.get() == State.PAUSED;
     }
 
     public int getItemsCount() {
-        return listenerMap.size();
+        return listenersCount;
+    }
+
+    /**
+     * @return the absolute paths with a listener
+     */
+    public Set<Path> getRegisteredPaths() {
+        return Collections.unmodifiableSet(listenerMap.keySet());
+    }
+
+    /**
+     * @return the parallelism requested by {@link #compute(int)}
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Reports the usage of a directory, for {@link UsageScanner}s. Only registered paths are notified.
+     */
+    public void completed(Path dir, long usage, long count) {
+        notifyListener(dir, usage, count);
     }
 
     public void compute() throws IOException {
-        for (Path path : pathsToScan) {
-            computeUsage(path.toAbsolutePath());
+        compute(1);
+    }
+
+    /**
+     * Compute disk usage using up to {@code parallelism} threads, see {@link #scanInParallel(Path, int)}.
+     * Roots are scanned one after the other, by their {@link UsageScanner} if one was set.
+     *
+     * @param parallelism maximum number of threads walking the disk, 1 to walk sequentially
+     */
+    public void compute(int parallelism) throws IOException {
+        this.parallelism = parallelism;
+        for (Path root : pathsToScan) {
+            if (isCancelled()) {
+                return;
+            }
+            UsageScanner scanner = scanners.get(root);
+            if (scanner != null) {
+                scanner.scan(this, root);
+            } else if (parallelism > 1) {
+                scanInParallel(root, parallelism);
+            } else {
+                computeUsage(root);
+            }
+        }
+    }
+
+    void scanWithJdkWalker(Path root) throws IOException {
+        if (!notifyKnown(root)) {
+            walk(root, Collections.emptySet(), null);
+        }
+    }
+
+    /**
+     * Reads every directory, even when an index is set.
+     */
+    void scanWithCompactWalker(Path root) {
+        if (!notifyKnown(root)) {
+            new CompactWalk(root, getSplitPoints(), null, null).walk();
+        }
+    }
+
+    /**
+     * Without an index, walks with {@link Files#walkFileTree}.
+     */
+    void scanIncrementally(Path root) throws IOException {
+        if (!notifyKnown(root)) {
+            if (index != null) {
+                new CompactWalk(root, getSplitPoints(), null, index).walk();
+            } else {
+                walk(root, Collections.emptySet(), null);
+            }
         }
     }
 
+    /**
+     * Each registered path, and each of its parents, is walked by an independent task, so
+     * jobs and first level directories are spread over the pool while parent totals are
+     * still summed from their children.
+     */
+    void scanInParallel(Path root, int parallelism) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism, WORKER_THREAD_FACTORY, null, false);
+        try {
+            pool.invoke(new ScanTask(root, getSplitPoints()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Registered paths and all their parents: the directories where a parallel walk forks.
+     */
+    private Set<Path> getSplitPoints() {
+        Set<Path> splitPoints = new HashSet<>();
+        for (Path path : listenerMap.keySet()) {
+            for (Path p = path; p != null && splitPoints.add(p); p = p.getParent()) {
+                // add all parents until we reach one which is already known
+            }
+        }
+        return splitPoints;
+    }
+
     public void computeFS() {
         // setting the disk space usage for the entire FS        
         for (Path path : pathsToScan) {
             try {
                 Path dir = path.toAbsolutePath();
-                long pathDiskUsage = jenkinsFSUsage();
+                UsageScanner scanner = scanners.get(dir);
+                long pathDiskUsage = scanner != null ? scanner.getFileSystemUsage(dir) : jenkinsFSUsage();
                 CompletionListener listener = listenerMap.get(dir);
                 if (listener != null) {
                     listener.onCompleted(dir, pathDiskUsage, 0L);
@@ -84,36 +446,114 @@ public class UsageComputation {
     }
 
     protected void computeUsage(Path path) throws IOException {
-        // we don't really need AtomicLong here, walking the tree is synchronous, but
-        // it's convenient for the operations it provides
+        scan(path, Collections.emptySet(), null);
+    }
 
-        // used to throttle IO
-        final AtomicLong chunkStartTime = new AtomicLong(System.currentTimeMillis());
+    /**
+     * Notifies the listener of a root already walked.
+     *
+     * @return true if the root totals are known
+     */
+    private boolean notifyKnown(Path root) {
+        long[] known = getKnown(root);
+        if (known != null) {
+            notifyListener(root, known);
+        }
+        return known != null;
+    }
 
+    /**
+     * @return the known totals of a path as wide as those of this computation, or null if it must be walked,
+     *         including when their categories are missing as those of its parents would be incomplete
+     */
+    private long[] getKnown(Path dir) {
+        long[] known = knownTotals.get(dir);
+        if (known == null || known.length == width()) {
+            return known;
+        }
+        return known.length < width() ? null : Arrays.copyOf(known, width());
+    }
+
+    private long[] scan(Path path, Set<Path> splitPoints, List<ScanTask> forks) throws IOException {
+        long[] known = getKnown(path);
+        if (known != null) {
+            if (forks == null) {
+                notifyListener(path, known);
+            }
+            return known.clone();
+        }
+        if (index != null || compactWalker) {
+            return new CompactWalk(path, forks != null ? splitPoints : getSplitPoints(), forks, index).walk();
+        }
+        return walk(path, splitPoints, forks);
+    }
+
+    /**
+     * Walk a directory tree, notifying listeners for each completed directory.
+     *
+     * @param path the root of the walk
+     * @param splitPoints directories to delegate to a new {@link ScanTask} instead of walking them
+     * @param forks collects the forked tasks, or null to walk sequentially. The root listener is
+     *              then left to the caller, as the forked tasks totals are not known yet.
+     * @return usage and file count of the walked tree, excluding forked tasks, then its category vector if categorized
+     */
+    private long[] walk(final Path path, final Set<Path> splitPoints, final List<ScanTask> forks) throws IOException {
         // used to lock this thread if there's a FS freeze ongoing
-        final AtomicLong writableLastCheckTime = new AtomicLong(System.currentTimeMillis());
+        final WritableCheck writableCheck = new WritableCheck();
+        // the files age is counted from the start of the walk
+        final long now = System.currentTimeMillis();
 
-        final Stack<AtomicLong> computeStack = new Stack<>();
-        final Stack<AtomicLong> counterStack = new Stack<>();
+        // totals and state of the directories being walked
+        final Stack<long[]> totalsStack = new Stack<>();
+        final Stack<Integer> stateStack = new Stack<>();
+        // usage, file count and modification time of the files directly in the directories being walked
+        final Stack<long[]> filesStack = new Stack<>();
 
-        computeStack.push(new AtomicLong(0));
-        counterStack.push(new AtomicLong(0));
+        totalsStack.push(new long[width()]);
+        stateStack.push(UsageCategory.NONE);
+        filesStack.push(new long[3]);
         Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            // entries visited and time spent since the last throttle pause
+            private long entries;
+            private long chunkStartTime = System.nanoTime();
+            // the JDK walker stats the entries, the time between two of them approximates the stat latency
+            private long lastEntryTime = chunkStartTime;
+
+            private void entry() {
+                long now = System.nanoTime();
+                metrics.stat(now - lastEntryTime);
+                lastEntryTime = now;
+                entries++;
+            }
+
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                computeStack.push(new AtomicLong(0));
-                counterStack.push(new AtomicLong(0));
-
-                // check every 10 seconds that the process can write a file in JENKINS_HOME
-                // this will lock this thread if the filesystem is frozen
-                // this is to speed up the FS freeze operation which is otherwise slowed down
-                if (System.currentTimeMillis() - writableLastCheckTime.get() > 10000) {
-                    writableLastCheckTime.set(System.currentTimeMillis());
-                    try {
-                        CHECK_FILE.touch(System.currentTimeMillis());
-                    } catch (InterruptedException e) {
-                        logger.log(Level.WARNING, "Exception while touching the checkfile", e);
-                    }
+                entry();
+                metrics.directory();
+                long[] known = getKnown(dir);
+                if (known != null && !dir.equals(path)) {
+                    notifyListener(dir, known);
+                    add(totalsStack.peek(), known);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (forks != null && splitPoints.contains(dir) && !dir.equals(path)) {
+                    ScanTask task = new ScanTask(dir, splitPoints);
+                    task.fork();
+                    forks.add(task);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                totalsStack.push(new long[width()]);
+                if (categorized) {
+                    stateStack.push(dir.equals(path)
+                            ? UsageCategory.rootState(dir) : UsageCategory.directoryState(stateStack.peek(), dir));
+                }
+                if (largest != null) {
+                    filesStack.push(new long[] {0, 0, attrs.lastModifiedTime().toMillis()});
+                }
+
+                if (writableCheck.check()) {
+                    lastEntryTime = System.nanoTime();
                 }
 
                 return FileVisitResult.CONTINUE;
@@ -121,13 +561,23 @@ public class UsageComputation {
 
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                computeStack.peek().addAndGet(attrs.size());
-                counterStack.peek().getAndIncrement();
+                entry();
+                long usage = usage(file, attrs);
+                metrics.file(usage);
+                addFile(totalsStack.peek(), stateStack.peek(), file, attrs, usage, now);
+                if (largest != null) {
+                    largest.file(file, usage);
+                    long[] files = filesStack.peek();
+                    files[0] += usage;
+                    files[1]++;
+                }
                 return FileVisitResult.CONTINUE;
             }
 
             @Override
             public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                entry();
+                metrics.failure();
                 return FileVisitResult.CONTINUE;
             }
 
@@ -137,31 +587,768 @@ public class UsageComputation {
                     logger.log(Level.WARNING, "Exception thrown while walking {}: {}", new Object[] {dir, exc });
                 }
 
-                // throttle the walking process so it only consumes at most half of the available IO bandwidth
-                // only pause every 100ms to ensure the walk is efficient anyway
-                long runTimeInMillis = System.currentTimeMillis() - chunkStartTime.get();
-                if (runTimeInMillis > 100) {
-                    try {
-                        Thread.sleep(runTimeInMillis);
-                        chunkStartTime.set(System.currentTimeMillis());
-                    } catch (InterruptedException e) {
-                        return FileVisitResult.TERMINATE;
-                    }
+                boolean resume = pause(entries, System.nanoTime() - chunkStartTime);
+                entries = 0;
+                chunkStartTime = System.nanoTime();
+                lastEntryTime = chunkStartTime;
+                if (!resume) {
+                    return FileVisitResult.TERMINATE;
                 }
 
-                long pathDiskUsage = computeStack.pop().get();
-                long pathFileCount = counterStack.pop().get();
-                CompletionListener listener = listenerMap.get(dir);
-                if (listener != null) {
-                    listener.onCompleted(dir, pathDiskUsage, pathFileCount);
+                long[] totals = totalsStack.pop();
+                if (categorized) {
+                    stateStack.pop();
+                }
+                if (largest != null) {
+                    long[] files = filesStack.pop();
+                    largest.directory(dir, files[0], files[1], files[2]);
+                }
+                if (forks == null || !dir.equals(path)) {
+                    notifyListener(dir, totals);
                 }
 
-                computeStack.peek().addAndGet(pathDiskUsage);
-                counterStack.peek().addAndGet(pathFileCount);
+                add(totalsStack.peek(), totals);
                 return FileVisitResult.CONTINUE;
             }
         });
+        return totalsStack.peek();
     }
 
+    /**
+     * Same as {@link #walk(Path, Set, List)} without a visitor nor per directory objects: the totals of the
+     * directories being walked are kept in arrays indexed by their depth. Where the platform provides a
+     * {@link SecureDirectoryStream}, directories are opened relative to their open parent, so the kernel
+     * doesn't resolve their full path again. Entries are statted by path though, statting them relative to
+     * their parent costs two more objects per entry.
+     *
+     * When an index is set, the content of the directories which can be trusted is taken from it rather than
+     * read, only their subdirectories are statted, and sealed directories are not walked at all. Only the
+     * directories whose subtree was fully visited are indexed, so a later scan never reuses partial totals.
+     *
+     * Listeners, known totals and split points can only be registered under a registered path parent, the
+     * other directories are walked without any lookup.
+     */
+    private class CompactWalk {
+        private static final int INITIAL_DEPTH = 32;
+
+        // shared rather than allocated by each varargs call
+        private static final LinkOption[] NOFOLLOW_LINKS = {LinkOption.NOFOLLOW_LINKS};
+
+        private static final String[] NO_NAMES = new String[0];
+
+        private final Path root;
+        // registered paths and all their parents
+        private final Set<Path> ancestors;
+        private final List<ScanTask> forks;
+        // the index of the computation, or null to read every directory
+        private final DirectoryIndex index;
+        // the JDK wraps the attributes it read in another object when asked for the basic ones
+        private final Class<? extends BasicFileAttributes> attributesType;
+        private int depth = -1;
+        private Path[] dirs = new Path[INITIAL_DEPTH];
+        private DirectoryStream<Path>[] streams = newStreams(INITIAL_DEPTH);
+        private Iterator<?>[] iterators = new Iterator<?>[INITIAL_DEPTH];
+        // usage and file count of the subdirectories, then of the files directly in the directories
+        private long[] usages = new long[INITIAL_DEPTH];
+        private long[] counts = new long[INITIAL_DEPTH];
+        private long[] filesUsages = new long[INITIAL_DEPTH];
+        private long[] filesCounts = new long[INITIAL_DEPTH];
+        private long[] mtimes = new long[INITIAL_DEPTH];
+        private boolean[] isAncestor = new boolean[INITIAL_DEPTH];
+        // whether the subtree of the directories was fully visited so far
+        private boolean[] complete = new boolean[INITIAL_DEPTH];
+        // category vectors of the subdirectories and of the files, and states, only when categorized
+        private long[][] categories = newVectors(INITIAL_DEPTH);
+        private long[][] filesCategories = newVectors(INITIAL_DEPTH);
+        private int[] states = new int[INITIAL_DEPTH];
+        // index entries reused for the directories whose content is not read, only with an index
+        private DirectoryIndex.Entry[] indexed = new DirectoryIndex.Entry[INITIAL_DEPTH];
+        // subdirectories found while reading the directories, or position in the names listed by the index
+        private String[][] names = new String[INITIAL_DEPTH][];
+        private int[] namesCounts = new int[INITIAL_DEPTH];
+        private long[] verified = new long[INITIAL_DEPTH];
+        private boolean[] isSealed = new boolean[INITIAL_DEPTH];
+        // largest file directly in the directories, then in their subtree, only with an index
+        private Path[] ownLargestFiles = new Path[INITIAL_DEPTH];
+        private long[] ownLargestUsages = new long[INITIAL_DEPTH];
+        private Path[] largestFiles = new Path[INITIAL_DEPTH];
+        private long[] largestUsages = new long[INITIAL_DEPTH];
+        // category vector of a reused directory, before it is aged
+        private final long[] aged = categorized ? new long[UsageCategory.VECTOR_WIDTH] : null;
+        // the files age is counted from the start of the walk
+        private final long now = System.currentTimeMillis();
+        // used to lock this thread if there's a FS freeze ongoing
+        private final WritableCheck writableCheck = new WritableCheck();
+        // entries statted and time spent since the last throttle pause
+        private long entries;
+        private long chunkStartTime = System.nanoTime();
+
+        CompactWalk(Path root, Set<Path> ancestors, List<ScanTask> forks, DirectoryIndex index) {
+            this.root = root;
+            this.ancestors = ancestors;
+            this.forks = forks;
+            this.index = index;
+            this.attributesType = root.getFileSystem().supportedFileAttributeViews().contains("posix")
+                    ? PosixFileAttributes.class : BasicFileAttributes.class;
+        }
+
+        /**
+         * @return usage and file count of the walked tree, then its category vector if categorized,
+         *         excluding forked tasks, or null if it can't be read
+         */
+        long[] walk() {
+            long[] totals = new long[width()];
+            BasicFileAttributes attrs;
+            try {
+                attrs = stat(root);
+            } catch (IOException e) {
+                metrics.failure();
+                return null;
+            }
+            if (!attrs.isDirectory()) {
+                long usage = usage(root, attrs);
+                metrics.file(usage);
+                addFile(totals, categorized ? UsageCategory.rootState(root.getParent()) : UsageCategory.NONE, root,
+                        attrs, usage, now);
+                if (largest != null) {
+                    largest.file(root, usage);
+                }
+                return totals;
+            }
+            DirectoryIndex.Entry sealedEntry = getSealed(root, attrs);
+            if (sealedEntry != null) {
+                totals[0] = sealedEntry.usage;
+                totals[1] = sealedEntry.count;
+                if (categorized) {
+                    System.arraycopy(age(sealedEntry), 0, totals, 2, UsageCategory.VECTOR_WIDTH);
+                }
+                if (forks == null) {
+                    notifyListener(root, totals);
+                }
+                if (largest != null && sealedEntry.subtreeLargestFile != null) {
+                    largest.file(root, sealedEntry.subtreeLargestFile, sealedEntry.subtreeLargestFileUsage);
+                }
+                return totals;
+            }
+            if (!open(root, ancestors.contains(root), attrs)) {
+                return null;
+            }
+            try {
+                while (depth >= 0) {
+                    Path child = next();
+                    if (child == null) {
+                        if (!complete(totals)) {
+                            break;
+                        }
+                        continue;
+                    }
+                    try {
+                        attrs = stat(child);
+                    } catch (IOException e) {
+                        metrics.failure();
+                        if (indexed[depth] != null) {
+                            // listed by the index, the directory changed anyway
+                            complete[depth] = false;
+                        }
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (index != null && indexed[depth] == null) {
+                            addName(child.getFileName().toString());
+                        }
+                        visitDirectory(child, attrs);
+                    } else if (indexed[depth] != null) {
+                        // listed as a directory by the index, the directory changed anyway
+                        complete[depth] = false;
+                    } else {
+                        long usage = usage(child, attrs);
+                        metrics.file(usage);
+                        filesUsages[depth] += usage;
+                        filesCounts[depth]++;
+                        if (largest != null) {
+                            largest.file(child, usage);
+                        }
+                        if (index != null && usage > ownLargestUsages[depth]) {
+                            ownLargestFiles[depth] = child;
+                            ownLargestUsages[depth] = usage;
+                        }
+                        if (categorized) {
+                            categorize(filesCategories[depth], 0, states[depth], child, attrs, usage, now);
+                        }
+                    }
+                }
+            } finally {
+                // only left open when the walk was terminated
+                while (depth >= 0) {
+                    if (index != null) {
+                        // the subtree usage is partial, don't let a later scan reuse it
+                        index.remove(dirs[depth]);
+                    }
+                    close();
+                }
+            }
+            return totals;
+        }
+
+        private void visitDirectory(Path dir, BasicFileAttributes attrs) {
+            boolean isDirAncestor = false;
+            if (isAncestor[depth]) {
+                long[] known = getKnown(dir);
+                if (known != null) {
+                    metrics.directory();
+                    notifyListener(dir, known);
+                    usages[depth] += known[0];
+                    counts[depth] += known[1];
+                    if (categorized) {
+                        addCategories(categories[depth], known, 2);
+                    }
+                    return;
+                }
+                isDirAncestor = ancestors.contains(dir);
+                if (forks != null && isDirAncestor) {
+                    metrics.directory();
+                    ScanTask task = new ScanTask(dir, ancestors);
+                    task.fork();
+                    forks.add(task);
+                    // the task indexes the root once its forks are joined
+                    complete[depth] &= depth == 0;
+                    return;
+                }
+            }
+            DirectoryIndex.Entry sealedEntry = getSealed(dir, attrs);
+            if (sealedEntry != null) {
+                metrics.directory();
+                usages[depth] += sealedEntry.usage;
+                counts[depth] += sealedEntry.count;
+                long[] aged = categorized ? age(sealedEntry) : null;
+                if (aged != null) {
+                    addCategories(categories[depth], aged, 0);
+                }
+                if (isDirAncestor) {
+                    long[] dirTotals = new long[width()];
+                    dirTotals[0] = sealedEntry.usage;
+                    dirTotals[1] = sealedEntry.count;
+                    if (aged != null) {
+                        System.arraycopy(aged, 0, dirTotals, 2, UsageCategory.VECTOR_WIDTH);
+                    }
+                    notifyListener(dir, dirTotals);
+                }
+                String largestFile = sealedEntry.subtreeLargestFile;
+                if (largestFile != null) {
+                    long largestFileUsage = sealedEntry.subtreeLargestFileUsage;
+                    if (largest != null) {
+                        largest.file(dir, largestFile, largestFileUsage);
+                    }
+                    if (largestFileUsage > largestUsages[depth]) {
+                        largestFiles[depth] = dir.resolve(largestFile);
+                        largestUsages[depth] = largestFileUsage;
+                    }
+                }
+                return;
+            }
+            writableCheck.check();
+            if (!open(dir, isDirAncestor, attrs)) {
+                complete[depth] = false;
+            }
+        }
+
+        /**
+         * @return the index entry of a sealed directory whose whole subtree can be reused, or null
+         */
+        private DirectoryIndex.Entry getSealed(Path dir, BasicFileAttributes attrs) {
+            // the hard links of a reused subtree wouldn't be seen by the rest of the scan
+            if (index == null || hardLinks != null || !sealed.test(dir)) {
+                return null;
+            }
+            DirectoryIndex.Entry entry = index.get(dir);
+            if (entry == null || !entry.isSubtreeValid(attrs.lastModifiedTime().toMillis(), now, sealedMaxAge)
+                    || categorized && entry.categories == null) {
+                return null;
+            }
+            entry.seen = now;
+            return entry;
+        }
+
+        /**
+         * @return the category vector of a sealed entry, aged since it was read
+         */
+        private long[] age(DirectoryIndex.Entry entry) {
+            System.arraycopy(entry.categories, 0, aged, 0, UsageCategory.VECTOR_WIDTH);
+            UsageAge.shift(aged, UsageCategory.AGES, now - entry.verified);
+            return aged;
+        }
+
+        /**
+         * Pushes a directory on the stacks, reusing its content from the index when it can be trusted.
+         *
+         * @return false if it can't be read
+         */
+        private boolean open(Path dir, boolean isDirAncestor, BasicFileAttributes attrs) {
+            long mtime = attrs.lastModifiedTime().toMillis();
+            DirectoryIndex.Entry entry = index != null ? index.get(dir) : null;
+            if (entry != null && (hardLinks != null || !entry.isValid(mtime, now, indexMaxAge)
+                    || categorized && entry.filesCategories == null)) {
+                entry = null;
+            }
+            DirectoryStream<Path> stream = null;
+            if (entry == null) {
+                try {
+                    if (depth >= 0 && streams[depth] instanceof SecureDirectoryStream) {
+                        stream = ((SecureDirectoryStream<Path>) streams[depth])
+                                .newDirectoryStream(dir.getFileName(), LinkOption.NOFOLLOW_LINKS);
+                    } else {
+                        stream = Files.newDirectoryStream(dir);
+                    }
+                } catch (IOException e) {
+                    metrics.failure();
+                    if (index != null) {
+                        index.remove(dir);
+                    }
+                    return false;
+                }
+            }
+            metrics.directory();
+            depth++;
+            if (depth == dirs.length) {
+                grow(dirs.length * 2);
+            }
+            dirs[depth] = dir;
+            streams[depth] = stream;
+            iterators[depth] = stream != null ? stream.iterator() : null;
+            indexed[depth] = entry;
+            usages[depth] = 0;
+            counts[depth] = 0;
+            mtimes[depth] = mtime;
+            isAncestor[depth] = isDirAncestor;
+            complete[depth] = true;
+            largestFiles[depth] = null;
+            largestUsages[depth] = 0;
+            ownLargestFiles[depth] = null;
+            ownLargestUsages[depth] = 0;
+            if (categorized) {
+                Arrays.fill(categories[depth], 0);
+                states[depth] = depth == 0
+                        ? UsageCategory.rootState(dir) : UsageCategory.directoryState(states[depth - 1], dir);
+            }
+            if (entry != null) {
+                filesUsages[depth] = entry.filesUsage;
+                filesCounts[depth] = entry.filesCount;
+                if (categorized) {
+                    // ages of the files as of when the directory was read
+                    System.arraycopy(entry.filesCategories, 0, filesCategories[depth], 0, UsageCategory.VECTOR_WIDTH);
+                    UsageAge.shift(filesCategories[depth], UsageCategory.AGES, now - entry.verified);
+                }
+                namesCounts[depth] = 0;
+                if (entry.largestFile != null) {
+                    // its files are not read, rank the largest one
+                    if (largest != null) {
+                        largest.file(dir, entry.largestFile, entry.largestFileUsage);
+                    }
+                    ownLargestFiles[depth] = dir.resolve(entry.largestFile);
+                    ownLargestUsages[depth] = entry.largestFileUsage;
+                }
+            } else {
+                filesUsages[depth] = 0;
+                filesCounts[depth] = 0;
+                if (categorized) {
+                    Arrays.fill(filesCategories[depth], 0);
+                }
+                if (index != null) {
+                    if (names[depth] == null) {
+                        names[depth] = new String[8];
+                    }
+                    namesCounts[depth] = 0;
+                    verified[depth] = System.currentTimeMillis();
+                    isSealed[depth] = sealed.test(dir);
+                }
+            }
+            return true;
+        }
+
+        private void grow(int length) {
+            dirs = Arrays.copyOf(dirs, length);
+            streams = Arrays.copyOf(streams, length);
+            iterators = Arrays.copyOf(iterators, length);
+            usages = Arrays.copyOf(usages, length);
+            counts = Arrays.copyOf(counts, length);
+            filesUsages = Arrays.copyOf(filesUsages, length);
+            filesCounts = Arrays.copyOf(filesCounts, length);
+            mtimes = Arrays.copyOf(mtimes, length);
+            isAncestor = Arrays.copyOf(isAncestor, length);
+            complete = Arrays.copyOf(complete, length);
+            states = Arrays.copyOf(states, length);
+            indexed = Arrays.copyOf(indexed, length);
+            names = Arrays.copyOf(names, length);
+            namesCounts = Arrays.copyOf(namesCounts, length);
+            verified = Arrays.copyOf(verified, length);
+            isSealed = Arrays.copyOf(isSealed, length);
+            ownLargestFiles = Arrays.copyOf(ownLargestFiles, length);
+            ownLargestUsages = Arrays.copyOf(ownLargestUsages, length);
+            largestFiles = Arrays.copyOf(largestFiles, length);
+            largestUsages = Arrays.copyOf(largestUsages, length);
+            if (categorized) {
+                int previous = categories.length;
+                categories = Arrays.copyOf(categories, length);
+                filesCategories = Arrays.copyOf(filesCategories, length);
+                for (int i = previous; i < length; i++) {
+                    categories[i] = new long[UsageCategory.VECTOR_WIDTH];
+                    filesCategories[i] = new long[UsageCategory.VECTOR_WIDTH];
+                }
+            }
+        }
+
+        /**
+         * Records the name of a subdirectory of the directory being read, for its index entry.
+         */
+        private void addName(String name) {
+            String[] current = names[depth];
+            if (namesCounts[depth] == current.length) {
+                names[depth] = current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[namesCounts[depth]++] = name;
+        }
+
+        /**
+         * @return the next entry of the current directory, or null once it has been read
+         */
+        private Path next() {
+            if (indexed[depth] != null) {
+                String[] listed = indexed[depth].directories;
+                return namesCounts[depth] < listed.length ? dirs[depth].resolve(listed[namesCounts[depth]++]) : null;
+            }
+            try {
+                Iterator<?> iterator = iterators[depth];
+                return iterator.hasNext() ? (Path) iterator.next() : null;
+            } catch (DirectoryIteratorException e) {
+                logger.log(Level.WARNING, "Exception thrown while walking {0}: {1}",
+                        new Object[] {dirs[depth], e.getCause()});
+                complete[depth] = false;
+                return null;
+            }
+        }
+
+        /**
+         * Pops the current directory, indexes it, notifies its listener and adds its totals to its parent.
+         *
+         * @return false if the walk must be terminated
+         */
+        private boolean complete(long[] totals) {
+            boolean resume = pause(entries, System.nanoTime() - chunkStartTime);
+            entries = 0;
+            chunkStartTime = System.nanoTime();
+            if (!resume) {
+                return false;
+            }
+            Path dir = dirs[depth];
+            long usage = usages[depth] + filesUsages[depth];
+            long count = counts[depth] + filesCounts[depth];
+            boolean isDirAncestor = isAncestor[depth];
+            boolean isComplete = complete[depth];
+            long[] dirCategories = null;
+            if (categorized) {
+                dirCategories = categories[depth];
+                addCategories(dirCategories, filesCategories[depth], 0);
+            }
+            if (largest != null) {
+                largest.directory(dir, filesUsages[depth], filesCounts[depth], mtimes[depth]);
+            }
+            Path largestFile = null;
+            long largestFileUsage = 0;
+            if (index != null) {
+                if (ownLargestUsages[depth] > largestUsages[depth]) {
+                    largestFiles[depth] = ownLargestFiles[depth];
+                    largestUsages[depth] = ownLargestUsages[depth];
+                }
+                largestFile = largestFiles[depth];
+                largestFileUsage = largestUsages[depth];
+                record(usage, count, isComplete);
+            }
+            close();
+            if (isDirAncestor && (forks == null || depth >= 0)) {
+                if (dirCategories != null) {
+                    long[] dirTotals = new long[width()];
+                    dirTotals[0] = usage;
+                    dirTotals[1] = count;
+                    System.arraycopy(dirCategories, 0, dirTotals, 2, UsageCategory.VECTOR_WIDTH);
+                    notifyListener(dir, dirTotals);
+                } else {
+                    notifyListener(dir, usage, count);
+                }
+            }
+            if (depth >= 0) {
+                usages[depth] += usage;
+                counts[depth] += count;
+                complete[depth] &= isComplete;
+                if (largestFileUsage > largestUsages[depth]) {
+                    largestFiles[depth] = largestFile;
+                    largestUsages[depth] = largestFileUsage;
+                }
+                if (dirCategories != null) {
+                    addCategories(categories[depth], dirCategories, 0);
+                }
+            } else {
+                totals[0] = usage;
+                totals[1] = count;
+                if (dirCategories != null) {
+                    System.arraycopy(dirCategories, 0, totals, 2, UsageCategory.VECTOR_WIDTH);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Indexes the current directory if its subtree was fully visited, forgets it otherwise.
+         */
+        private void record(long usage, long count, boolean isComplete) {
+            Path dir = dirs[depth];
+            if (!isComplete) {
+                index.remove(dir);
+                return;
+            }
+            DirectoryIndex.Entry entry = indexed[depth];
+            if (entry == null) {
+                Path ownLargestFile = ownLargestFiles[depth];
+                entry = new DirectoryIndex.Entry(mtimes[depth], verified[depth], filesUsages[depth],
+                        filesCounts[depth], categorized ? filesCategories[depth].clone() : null,
+                        namesCounts[depth] == 0 ? NO_NAMES : Arrays.copyOf(names[depth], namesCounts[depth]),
+                        isSealed[depth], ownLargestFile != null ? ownLargestFile.getFileName().toString() : null,
+                        ownLargestUsages[depth]);
+            }
+            entry.usage = usage;
+            entry.count = count;
+            if (entry.sealed) {
+                Path largestFile = largestFiles[depth];
+                entry.subtreeLargestFile = largestFile != null ? dir.relativize(largestFile).toString() : null;
+                entry.subtreeLargestFileUsage = largestUsages[depth];
+            }
+            // the ages of the subtree are reused from when the directory was read, as are those of its files
+            entry.categories = categorized && entry.verified >= now ? categories[depth].clone() : null;
+            entry.seen = now;
+            // a task root is kept until its forks are joined, see ScanTask
+            if (indexMaxAge > 0 || entry.sealed || forks != null && depth == 0) {
+                index.put(dir, entry);
+            }
+        }
+
+        private void close() {
+            if (streams[depth] != null) {
+                try {
+                    streams[depth].close();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Failed to close " + dirs[depth], e);
+                }
+                if (index != null) {
+                    // the buffer is reused by the next directory read at this depth
+                    Arrays.fill(names[depth], 0, namesCounts[depth], null);
+                }
+            }
+            dirs[depth] = null;
+            streams[depth] = null;
+            iterators[depth] = null;
+            indexed[depth] = null;
+            ownLargestFiles[depth] = null;
+            largestFiles[depth] = null;
+            depth--;
+        }
+
+        private BasicFileAttributes stat(Path path) throws IOException {
+            long start = System.nanoTime();
+            entries++;
+            try {
+                return Files.readAttributes(path, attributesType, NOFOLLOW_LINKS);
+            } finally {
+                metrics.stat(System.nanoTime() - start);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private DirectoryStream<Path>[] newStreams(int length) {
+            return new DirectoryStream[length];
+        }
+
+        private long[][] newVectors(int length) {
+            return categorized ? new long[length][UsageCategory.VECTOR_WIDTH] : null;
+        }
+    }
+
+    /**
+     * Checks every 10 seconds of a walk that the process can write a file in JENKINS_HOME. This locks the
+     * walking thread while the file system is frozen, to speed up the FS freeze operation which is otherwise
+     * slowed down. Each walker has its own.
+     */
+    private final class WritableCheck {
+        private long lastCheckTime = System.currentTimeMillis();
+
+        /**
+         * @return true if the file was written, the walker may have been blocked
+         */
+        boolean check() {
+            if (System.currentTimeMillis() - lastCheckTime <= 10000) {
+                return false;
+            }
+            lastCheckTime = System.currentTimeMillis();
+            try {
+                touchCheckFile();
+            } catch (IOException | InterruptedException e) {
+                logger.log(Level.WARNING, "Exception while touching the checkfile", e);
+            }
+            return true;
+        }
+
+        /**
+         * Writes a file in JENKINS_HOME, which blocks while the file system is frozen.
+         * Does nothing outside of Jenkins, for instance on agents or in benchmarks.
+         */
+        private void touchCheckFile() throws IOException, InterruptedException {
+            if (!JenkinsJVM.isJenkinsJVM()) {
+                return;
+            }
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            if (jenkins != null) {
+                long start = System.nanoTime();
+                try {
+                    new FilePath(jenkins.getRootPath(), "simpleDiskUsageCheck").touch(System.currentTimeMillis());
+                } finally {
+                    metrics.checkFile(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Throttles the scan, for {@link UsageScanner}s. Blocks while the computation is paused,
+     * see {@link #setPaused(boolean)}.
+     *
+     * @param entries number of files and directories statted since the previous call
+     * @param busyNanos time spent since the previous call
+     * @return false if the scan must stop, because it was cancelled or interrupted
+     */
+    public boolean pause(long entries, long busyNanos) {
+        long start = System.nanoTime();
+        try {
+            while (isPaused()) {
+                if (!IoThrottle.sleep(PAUSED_POLL_NANOS)) {
+                    return false;
+                }
+            }
+            if (isCancelled()) {
+                return false;
+            }
+            return throttle.pause(entries, busyNanos);
+        } finally {
+            metrics.throttled(System.nanoTime() - start);
+        }
+    }
+
+    private long usage(Path file, BasicFileAttributes attrs) {
+        return hardLinks == null ? attrs.size() : hardLinks.usage(file, attrs);
+    }
+
+    private void notifyListener(Path dir, long usage, long count) {
+        CompletionListener listener = listenerMap.get(dir);
+        if (listener != null) {
+            listener.onCompleted(dir, usage, count, null);
+            if (checkpoint != null) {
+                checkpoint.completed(dir, new long[] {usage, count});
+            }
+        }
+    }
+
+    /**
+     * @param totals usage and file count, then the category vector if known
+     */
+    private void notifyListener(Path dir, long[] totals) {
+        CompletionListener listener = listenerMap.get(dir);
+        if (listener != null) {
+            long[] categories = totals.length > 2 ? Arrays.copyOfRange(totals, 2, totals.length) : null;
+            listener.onCompleted(dir, totals[0], totals[1], categories);
+            if (checkpoint != null) {
+                checkpoint.completed(dir, totals.clone());
+            }
+        }
+    }
+
+    /**
+     * Walks a directory on the fork-join pool, forking a new task for each split point found,
+     * and adds up the forked tasks totals before notifying the directory listener.
+     */
+    private class ScanTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Set<Path> splitPoints;
+        // whether the whole subtree was visited, so the directories above it can be indexed
+        private boolean complete;
+
+        ScanTask(Path dir, Set<Path> splitPoints) {
+            this.dir = dir;
+            this.splitPoints = splitPoints;
+        }
+
+        @Override
+        protected long[] compute() {
+            List<ScanTask> forks = new ArrayList<>();
+            long start = System.currentTimeMillis();
+            long[] totals;
+            try {
+                totals = scan(dir, splitPoints, forks);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (totals == null) {
+                // the directory can't be read, nothing was forked
+                return null;
+            }
+            boolean forksComplete = true;
+            for (ScanTask fork : forks) {
+                long[] forkTotals = fork.join();
+                if (forkTotals != null) {
+                    add(totals, forkTotals);
+                }
+                forksComplete &= fork.complete;
+            }
+            // not ForkJoinTask#isCancelled(), the tasks are not cancelled but the computation
+            if (UsageComputation.this.isCancelled() || Thread.currentThread().isInterrupted()) {
+                // the walk was terminated, totals are partial
+                if (index != null) {
+                    index.remove(dir);
+                }
+                return totals;
+            }
+            if (index != null && getKnown(dir) == null) {
+                // the walk only leaves the entry of the root when its own subtree was fully visited
+                DirectoryIndex.Entry entry = index.get(dir);
+                complete = entry != null && forksComplete;
+                if (complete) {
+                    entry.usage = totals[0];
+                    entry.count = totals[1];
+                    if (entry.verified >= start) {
+                        // otherwise the walk kept the categories, whose ages are as of when the directory was read
+                        entry.categories = totals.length > 2 ? Arrays.copyOfRange(totals, 2, totals.length) : null;
+                    }
+                }
+                if (!complete || indexMaxAge <= 0 && !entry.sealed) {
+                    index.remove(dir);
+                }
+            } else {
+                complete = forksComplete;
+            }
+            notifyListener(dir, totals);
+            return totals;
+        }
+    }
+
+    private static void addCategories(long[] categories, long[] other, int offset) {
+        for (int i = 0; i < UsageCategory.VECTOR_WIDTH; i++) {
+            categories[i] += other[offset + i];
+        }
+    }
+
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory WORKER_THREAD_FACTORY = pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("Simple disk usage computation worker " + thread.getPoolIndex());
+        return thread;
+    };
+
     private static final Logger logger = Logger.getLogger(UsageComputation.class.getName());
 }
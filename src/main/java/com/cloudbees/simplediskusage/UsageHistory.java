@@ -0,0 +1,360 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * History of the usage of each job and directory, recorded after each scan.
+ *
+ * Each series keeps a fixed number of hourly, daily and weekly values in ring buffers, so the
+ * history size doesn't grow with time. A value is the last usage known at the end of its period,
+ * periods without scan repeat the previous value.
+ */
+public final class UsageHistory {
+
+    private static final int MAGIC = 0x53445548; // SDUH
+
+    private static final int VERSION = 1;
+
+    public enum Resolution {
+        HOURLY(TimeUnit.HOURS.toMillis(1), 48),
+        DAILY(TimeUnit.DAYS.toMillis(1), 62),
+        WEEKLY(TimeUnit.DAYS.toMillis(7), 104);
+
+        final long period;
+        final int capacity;
+
+        Resolution(long period, int capacity) {
+            this.period = period;
+            this.capacity = capacity;
+        }
+    }
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+    /**
+     * Values of a single period.
+     */
+    public static final class Point {
+        private final long time;
+        private final long usage;
+        private final long count;
+
+        Point(long time, long usage, long count) {
+            this.time = time;
+            this.usage = usage;
+            this.count = count;
+        }
+
+        /**
+         * @return start of the period
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return usage in KB
+         */
+        public long getUsage() {
+            return usage;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Values of one resolution, the value of period {@code p} is stored at {@code p % capacity}.
+     */
+    private static final class Ring {
+        private final Resolution resolution;
+        private final long[] usages;
+        private final long[] counts;
+        private long last = -1;
+        private int size;
+
+        Ring(Resolution resolution) {
+            this.resolution = resolution;
+            this.usages = new long[resolution.capacity];
+            this.counts = new long[resolution.capacity];
+        }
+
+        void record(long time, long usage, long count) {
+            long period = time / resolution.period;
+            if (last >= 0 && period > last) {
+                // repeat the last value over the periods without scan
+                int slot = slot(last);
+                for (long p = last + 1; p < period && p <= last + resolution.capacity; p++) {
+                    usages[slot(p)] = usages[slot];
+                    counts[slot(p)] = counts[slot];
+                }
+                size = (int) Math.min(resolution.capacity, size + period - last);
+                last = period;
+            } else if (last < 0) {
+                size = 1;
+                last = period;
+            }
+            // the clock may have gone backward, then the current period is updated
+            usages[slot(last)] = usage;
+            counts[slot(last)] = count;
+        }
+
+        private int slot(long period) {
+            return (int) (period % resolution.capacity);
+        }
+
+        long first() {
+            return last - size + 1;
+        }
+
+        /**
+         * @return the value of the period containing the given time, or null if it isn't covered
+         */
+        Point at(long time) {
+            long period = Math.min(time / resolution.period, last);
+            if (size == 0 || period < first()) {
+                return null;
+            }
+            return point(period);
+        }
+
+        Point point(long period) {
+            return new Point(period * resolution.period, usages[slot(period)], counts[slot(period)]);
+        }
+
+        Point[] points() {
+            Point[] points = new Point[size];
+            for (int i = 0; i < size; i++) {
+                points[i] = point(first() + i);
+            }
+            return points;
+        }
+    }
+
+    private static final class Series {
+        private final Ring[] rings = new Ring[RESOLUTIONS.length];
+
+        Series() {
+            for (int i = 0; i < rings.length; i++) {
+                rings[i] = new Ring(RESOLUTIONS[i]);
+            }
+        }
+
+        synchronized void record(long time, long usage, long count) {
+            for (Ring ring : rings) {
+                ring.record(time, usage, count);
+            }
+        }
+
+        synchronized Point latest() {
+            Ring ring = rings[0];
+            return ring.size == 0 ? null : ring.point(ring.last);
+        }
+
+        /**
+         * @return the value at the given time from the finest resolution covering it, or the oldest value known
+         */
+        synchronized Point at(long time) {
+            for (Ring ring : rings) {
+                Point point = ring.at(time);
+                if (point != null) {
+                    return point;
+                }
+            }
+            Ring coarsest = rings[rings.length - 1];
+            return coarsest.size == 0 ? null : coarsest.point(coarsest.first());
+        }
+
+        synchronized Point[] points(Resolution resolution) {
+            return rings[resolution.ordinal()].points();
+        }
+    }
+
+    /**
+     * Growth of a series between two points.
+     */
+    public static final class Growth {
+        private final Point from;
+        private final Point to;
+
+        Growth(Point from, Point to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public Point getFrom() {
+            return from;
+        }
+
+        public Point getTo() {
+            return to;
+        }
+
+        /**
+         * @return usage difference in KB
+         */
+        public long getUsage() {
+            return to.usage - from.usage;
+        }
+
+        public long getCount() {
+            return to.count - from.count;
+        }
+
+        /**
+         * @return usage difference in KB per day, 0 if both points are in the same hour
+         */
+        public double getUsagePerDay() {
+            long elapsed = to.time - from.time;
+            if (elapsed < Resolution.HOURLY.period) {
+                return 0;
+            }
+            return getUsage() * (double) TimeUnit.DAYS.toMillis(1) / elapsed;
+        }
+    }
+
+    /**
+     * Records the usage of the given items and forgets the series of items which are gone.
+     */
+    public void record(long time, Collection<? extends DiskItem> items) {
+        Set<String> recorded = new HashSet<>();
+        for (DiskItem item : items) {
+            String key = key(item.getPath());
+            series.computeIfAbsent(key, k -> new Series())
+                    .record(time, item.getUsage() == null ? 0 : item.getUsage(), item.getCount() == null ? 0 : item.getCount());
+            recorded.add(key);
+        }
+        series.keySet().retainAll(recorded);
+    }
+
+    /**
+     * @return the growth of the given path since the given time, or null if the path has no history
+     */
+    public Growth getGrowth(File path, long since) {
+        Series s = series.get(key(path));
+        if (s == null) {
+            return null;
+        }
+        Point from = s.at(since);
+        Point to = s.latest();
+        return from == null || to == null ? null : new Growth(from, to);
+    }
+
+    /**
+     * @return the values of the given path, oldest first
+     */
+    public Point[] getPoints(File path, Resolution resolution) {
+        Series s = series.get(key(path));
+        return s == null ? new Point[0] : s.points(resolution);
+    }
+
+    public int size() {
+        return series.size();
+    }
+
+    private static String key(File path) {
+        return path.getAbsolutePath();
+    }
+
+    public static UsageHistory load(File file) {
+        UsageHistory history = new UsageHistory();
+        try (InputStream in = Files.newInputStream(file.toPath());
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                logger.log(Level.INFO, "Ignoring usage history with unknown format {0}", file);
+                return history;
+            }
+            int size = data.readInt();
+            for (int i = 0; i < size; i++) {
+                String path = data.readUTF();
+                Series s = new Series();
+                for (Ring ring : s.rings) {
+                    ring.last = data.readLong();
+                    ring.size = data.readInt();
+                    if (ring.size < 0 || ring.size > ring.resolution.capacity) {
+                        throw new IOException("Invalid history size " + ring.size);
+                    }
+                    for (int j = 0; j < ring.size; j++) {
+                        int slot = ring.slot(ring.first() + j);
+                        ring.usages[slot] = data.readLong();
+                        ring.counts[slot] = data.readLong();
+                    }
+                }
+                history.series.put(path, s);
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to load usage history " + file + ", starting from scratch", e);
+            history.series.clear();
+        }
+        return history;
+    }
+
+    /**
+     * Writes the history to a temporary file which then replaces the previous one.
+     */
+    public void save(File file) throws IOException {
+        DataFiles.write(file, MAGIC, VERSION, data -> {
+            Map<String, Series> snapshot = Map.copyOf(series);
+            data.writeInt(snapshot.size());
+            for (Map.Entry<String, Series> e : snapshot.entrySet()) {
+                data.writeUTF(e.getKey());
+                Series s = e.getValue();
+                synchronized (s) {
+                    for (Ring ring : s.rings) {
+                        data.writeLong(ring.last);
+                        data.writeInt(ring.size);
+                        for (int j = 0; j < ring.size; j++) {
+                            int slot = ring.slot(ring.first() + j);
+                            data.writeLong(ring.usages[slot]);
+                            data.writeLong(ring.counts[slot]);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static final Logger logger = Logger.getLogger(UsageHistory.class.getName());
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest2;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Query over the usages of a {@link UsageStore}: filters, sort order, top-N and cursor pagination.
+ *
+ * Items are browsed from a pre-sorted snapshot of the store, ordered by usage or count then path so
+ * the order is total. The cursor is the sort value and path of the last returned item, so pages stay
+ * consistent when items are added or removed between requests.
+ */
+final class UsageQuery {
+
+    static final int DEFAULT_LIMIT = 100;
+
+    static final int MAX_LIMIT = 1000;
+
+    enum Sort {
+        USAGE(DiskItem::getUsage),
+        COUNT(DiskItem::getCount);
+
+        private final Comparator<DiskItem> ascending;
+        /**
+         * Shared by the callers sorting a {@link UsageStore}, which caches its sorted snapshots per comparator.
+         */
+        final Comparator<DiskItem> descending;
+        private final ToLongFunction<DiskItem> value;
+
+        Sort(Function<DiskItem, Long> getter) {
+            this.value = item -> longValue(getter.apply(item));
+            this.ascending = Comparator.comparingLong(value).thenComparing(DiskItem::getPath);
+            this.descending = ascending.reversed();
+        }
+    }
+
+    private final Sort sort;
+    private final boolean ascending;
+    private final String prefix;
+    private final String folder;
+    private final long minUsage;
+    private final long maxUsage;
+    private final int limit;
+    private final String cursor;
+
+    UsageQuery(Sort sort, boolean ascending, String prefix, String folder, long minUsage, long maxUsage, int limit,
+               String cursor) {
+        this.sort = sort;
+        this.ascending = ascending;
+        this.prefix = prefix;
+        this.folder = folder;
+        this.minUsage = minUsage;
+        this.maxUsage = maxUsage;
+        this.limit = limit;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Reads the query from the request parameters:
+     * {@code sort} ({@code usage} or {@code count}), {@code order} ({@code desc} or {@code asc}),
+     * {@code prefix} and {@code folder} matched against the job full name or the directory display name,
+     * {@code minUsage} and {@code maxUsage} in KB, {@code limit} and {@code cursor}.
+     *
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    static UsageQuery parse(StaplerRequest2 req) {
+        String sort = req.getParameter("sort");
+        String order = req.getParameter("order");
+        if (order != null && !order.equals("asc") && !order.equals("desc")) {
+            throw new IllegalArgumentException("order must be asc or desc");
+        }
+        String folder = req.getParameter("folder");
+        long limit = parseLong(req, "limit", DEFAULT_LIMIT);
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        Sort s;
+        try {
+            s = sort == null ? Sort.USAGE : Sort.valueOf(sort.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("sort must be usage or count");
+        }
+        return new UsageQuery(s, "asc".equals(order), req.getParameter("prefix"),
+                folder == null || folder.isEmpty() ? null : folder.endsWith("/") ? folder : folder + "/",
+                parseLong(req, "minUsage", 0), parseLong(req, "maxUsage", Long.MAX_VALUE),
+                (int) limit, req.getParameter("cursor"));
+    }
+
+    private static long parseLong(StaplerRequest2 req, String name, long defaultValue) {
+        String value = req.getParameter(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    /**
+     * The order in which {@link #execute(List)} expects the items.
+     */
+    Comparator<DiskItem> getOrder() {
+        return ascending ? sort.ascending : sort.descending;
+    }
+
+    /**
+     * @param sorted all the items, sorted by {@link #getOrder()}
+     * @return the requested page, as JSON
+     */
+    JSONObject execute(List<? extends DiskItem> sorted) {
+        int start = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            int position = Collections.binarySearch(sorted, decodeCursor(cursor), getOrder());
+            start = position >= 0 ? position + 1 : -position - 1;
+        }
+        JSONArray items = new JSONArray();
+        DiskItem last = null;
+        boolean more = false;
+        for (int i = start; i < sorted.size(); i++) {
+            DiskItem item = sorted.get(i);
+            long usage = longValue(item.getUsage());
+            if (usage < minUsage || usage > maxUsage) {
+                if (sort == Sort.USAGE && (ascending ? usage > maxUsage : usage < minUsage)) {
+                    // no other item can match in this order
+                    break;
+                }
+                continue;
+            }
+            String name = nameOf(item);
+            if (prefix != null && (name == null || !name.startsWith(prefix))
+                    || folder != null && (name == null || !name.startsWith(folder))) {
+                continue;
+            }
+            if (items.size() == limit) {
+                more = true;
+                break;
+            }
+            items.add(toJSON(item));
+            last = item;
+        }
+        JSONObject page = new JSONObject();
+        page.put("items", items);
+        if (more) {
+            page.put("nextCursor", encodeCursor(last));
+        }
+        return page;
+    }
+
+    private String encodeCursor(DiskItem item) {
+        String value = sort.value.applyAsLong(item) + ":" + item.getPath().getPath();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return an item with the same position in the sort order as the last item of the previous page
+     */
+    private static DiskItem decodeCursor(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.indexOf(':');
+            long sortValue = Long.parseLong(value.substring(0, separator));
+            return new DiskItem(null, new File(value.substring(separator + 1)), sortValue, sortValue);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+
+    private static String nameOf(DiskItem item) {
+        return item instanceof JobDiskItem ? ((JobDiskItem) item).getFullName() : item.getDisplayName();
+    }
+
+    static JSONObject toJSON(DiskItem item) {
+        JSONObject json = new JSONObject();
+        json.put("displayName", item.getDisplayName());
+        json.put("pathString", item.getPathString());
+        json.put("usageKB", longValue(item.getUsage()));
+        json.put("count", longValue(item.getCount()));
+        if (item instanceof JobDiskItem) {
+            json.put("fullName", ((JobDiskItem) item).getFullName());
+            json.put("url", ((JobDiskItem) item).getUrl());
+            List<JobDiskItem.CategoryUsage> categories = ((JobDiskItem) item).getCategories();
+            if (!categories.isEmpty()) {
+                JSONArray usages = new JSONArray();
+                for (JobDiskItem.CategoryUsage category : categories) {
+                    JSONObject usage = new JSONObject();
+                    usage.put("name", category.getName());
+                    usage.put("usageKB", category.getUsage());
+                    usage.put("count", category.getCount());
+                    usages.add(usage);
+                }
+                json.put("categories", usages);
+            }
+        }
+        List<DiskItem.AgeUsage> ages = item.getAges();
+        if (!ages.isEmpty()) {
+            JSONArray usages = new JSONArray();
+            for (DiskItem.AgeUsage age : ages) {
+                JSONObject usage = new JSONObject();
+                usage.put("name", age.getName());
+                usage.put("usageKB", age.getUsage());
+                usage.put("count", age.getCount());
+                usages.add(usage);
+            }
+            json.put("ages", usages);
+        }
+        if (item instanceof FolderDiskItem) {
+            json.put("folder", true);
+        }
+        return json;
+    }
+
+    private static long longValue(Long value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Engine computing the disk usage of a scanned root, which can be selected for each root so the
+ * fastest one is used for each storage.
+ *
+ * Scanners report the usage of the registered directories below the root, the root included, with
+ * {@link UsageComputation#completed(Path, long, long)} which notifies their {@link UsageComputation.CompletionListener}.
+ * They should call {@link UsageComputation#pause(long, long)} regularly, so the scan is throttled and
+ * can be cancelled.
+ */
+public abstract class UsageScanner implements ExtensionPoint {
+
+    /**
+     * @return the identifier used to select this scanner
+     */
+    public abstract String getId();
+
+    /**
+     * Computes the usage of a root and of the registered directories below it.
+     *
+     * @param computation the computation to report to
+     * @param root absolute path of the root
+     */
+    public abstract void scan(UsageComputation computation, Path root) throws IOException;
+
+    /**
+     * @return space used on the file system holding the given path, or -1 if it isn't available
+     */
+    public long getFileSystemUsage(Path path) throws IOException {
+        File file = path.toFile();
+        long total = file.getTotalSpace();
+        long usable = file.getUsableSpace();
+        if (usable <= 0 || total <= 0) {
+            return -1;
+        }
+        return total - usable;
+    }
+
+    /**
+     * @return the scanner with the given identifier, or null if there is none
+     */
+    public static UsageScanner get(String id) {
+        for (UsageScanner scanner : ExtensionList.lookup(UsageScanner.class)) {
+            if (scanner.getId().equals(id)) {
+                return scanner;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Walks the root with {@link java.nio.file.Files#walkFileTree}.
+     */
+    @Extension
+    public static class Jdk extends UsageScanner {
+        @Override
+        public String getId() {
+            return "jdk";
+        }
+
+        @Override
+        public void scan(UsageComputation computation, Path root) throws IOException {
+            computation.scanWithJdkWalker(root);
+        }
+    }
+
+    /**
+     * Walks the root keeping the totals of the directories being walked in primitive arrays,
+     * to produce less garbage on large trees. Every directory is read, even when the computation has an index.
+     */
+    @Extension
+    public static class Compact extends UsageScanner {
+        @Override
+        public String getId() {
+            return "compact";
+        }
+
+        @Override
+        public void scan(UsageComputation computation, Path root) {
+            computation.scanWithCompactWalker(root);
+        }
+    }
+
+    /**
+     * Walks the root reusing the directories content from the index of the computation, when it has one.
+     */
+    @Extension
+    public static class Incremental extends UsageScanner {
+        @Override
+        public String getId() {
+            return "incremental";
+        }
+
+        @Override
+        public void scan(UsageComputation computation, Path root) throws IOException {
+            computation.scanIncrementally(root);
+        }
+    }
+
+    /**
+     * Walks the registered directories below the root concurrently, with the parallelism of the computation
+     * or at least 2 threads.
+     */
+    @Extension
+    public static class Parallel extends UsageScanner {
+        @Override
+        public String getId() {
+            return "parallel";
+        }
+
+        @Override
+        public void scan(UsageComputation computation, Path root) throws IOException {
+            computation.scanInParallel(root, Math.max(2, computation.getParallelism()));
+        }
+    }
+
+    /**
+     * Runs {@code du -k} on the root, letting the native tool walk huge trees. It counts the blocks
+     * used rather than the size of files, hard links once, and doesn't count files: the registered
+     * directories are reported with a count of 0. The throttle can only slow down the reading of its
+     * output, which the process then waits for.
+     */
+    @Extension
+    public static class Du extends UsageScanner {
+        private static final int LINES_BETWEEN_PAUSES = 1000;
+
+        @Override
+        public String getId() {
+            return "du";
+        }
+
+        @Override
+        public void scan(UsageComputation computation, Path root) throws IOException {
+            Map<String, Path> registered = new HashMap<>();
+            for (Path path : computation.getRegisteredPaths()) {
+                if (path.startsWith(root)) {
+                    registered.put(path.toString(), path);
+                }
+            }
+            if (registered.isEmpty()) {
+                return;
+            }
+            Process process = new ProcessBuilder("du", "-k", root.toString())
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            try (BufferedReader output = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), Charset.defaultCharset()))) {
+                long lines = 0;
+                long chunkStartTime = System.nanoTime();
+                String line;
+                while ((line = output.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    Path dir = tab > 0 ? registered.get(line.substring(tab + 1)) : null;
+                    if (dir != null) {
+                        try {
+                            computation.completed(dir, Long.parseLong(line.substring(0, tab)) * 1024, 0);
+                        } catch (NumberFormatException e) {
+                            logger.log(Level.FINE, "Ignoring du output {0}", line);
+                        }
+                    }
+                    if (++lines % LINES_BETWEEN_PAUSES == 0) {
+                        if (!computation.pause(LINES_BETWEEN_PAUSES, System.nanoTime() - chunkStartTime)) {
+                            return;
+                        }
+                        chunkStartTime = System.nanoTime();
+                    }
+                }
+                // du exits with 1 when some directories can't be read, the others are still reported
+                int exitCode = process.waitFor();
+                if (exitCode != 0) {
+                    logger.log(Level.FINE, "du exited with {0} for {1}", new Object[] {exitCode, root});
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                process.destroy();
+            }
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(UsageScanner.class.getName());
+}
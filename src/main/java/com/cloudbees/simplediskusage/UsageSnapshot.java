@@ -0,0 +1,327 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Binary snapshot of the computed usages, much smaller and faster to read than the XML configuration.
+ *
+ * Strings (names, paths and URLs) are written once in a table and referenced by index, then each
+ * field is written as a column for all the items.
+ */
+final class UsageSnapshot {
+
+    private static final int MAGIC = 0x53445553; // SDUS
+
+    private static final int VERSION = 1;
+
+    private final List<DiskItem> directories;
+
+    private final List<JobDiskItem> jobs;
+
+    private final List<FolderDiskItem> folders;
+
+    UsageSnapshot(List<DiskItem> directories, List<JobDiskItem> jobs, List<FolderDiskItem> folders) {
+        this.directories = directories;
+        this.jobs = jobs;
+        this.folders = folders;
+    }
+
+    List<DiskItem> getDirectories() {
+        return directories;
+    }
+
+    List<JobDiskItem> getJobs() {
+        return jobs;
+    }
+
+    List<FolderDiskItem> getFolders() {
+        return folders;
+    }
+
+    /**
+     * @return the snapshot, or null if the file doesn't exist
+     * @throws IOException if the file can't be read or has an unknown format
+     */
+    static UsageSnapshot read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(file.toPath());
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            int version = data.readInt() == MAGIC ? data.readInt() : -1;
+            if (version != VERSION) {
+                throw new IOException("Unknown usage snapshot format " + file);
+            }
+            String[] strings = new String[data.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = data.readUTF();
+            }
+
+            int size = data.readInt();
+            String[] displayNames = readStrings(data, strings, size);
+            String[] paths = readStrings(data, strings, size);
+            long[] usages = readLongs(data, size);
+            long[] counts = readLongs(data, size);
+            List<DiskItem> directories = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                directories.add(new DiskItem(displayNames[i], new File(paths[i]), usages[i], counts[i]));
+            }
+
+            List<JobDiskItem> jobs = readJobs(data, strings, JobDiskItem::new);
+            List<FolderDiskItem> folders = readJobs(data, strings, FolderDiskItem::new);
+            jobs = readCategories(data, jobs);
+            directories = readAges(data, directories, DiskItem::withAges);
+            jobs = readAges(data, jobs, JobDiskItem::withAges);
+            return new UsageSnapshot(directories, jobs, folders);
+        }
+    }
+
+    /**
+     * @return the jobs with their categories, which are dropped if the categories changed since they were written
+     */
+    private static List<JobDiskItem> readCategories(DataInputStream data, List<JobDiskItem> jobs) throws IOException {
+        int width = data.readInt();
+        long[][] columns = new long[width][];
+        for (int i = 0; i < width; i++) {
+            columns[i] = readLongs(data, jobs.size());
+        }
+        if (width != UsageCategory.WIDTH) {
+            return jobs;
+        }
+        List<JobDiskItem> result = new ArrayList<>(jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            JobDiskItem job = jobs.get(i);
+            // unknown categories are written as -1
+            if (columns[0][i] >= 0) {
+                long[] categories = new long[width];
+                for (int j = 0; j < width; j++) {
+                    categories[j] = columns[j][i];
+                }
+                job = job.withCategories(categories);
+            }
+            result.add(job);
+        }
+        return result;
+    }
+
+    /**
+     * @return the items with their ages, which are dropped if the ages changed since they were written
+     */
+    private static <T extends DiskItem> List<T> readAges(DataInputStream data, List<T> items,
+                                                        BiFunction<T, long[], T> withAges) throws IOException {
+        int width = data.readInt();
+        long[][] columns = new long[width][];
+        for (int i = 0; i < width; i++) {
+            columns[i] = readLongs(data, items.size());
+        }
+        if (width != UsageAge.WIDTH) {
+            return items;
+        }
+        List<T> result = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            T item = items.get(i);
+            // unknown ages are written as -1
+            if (columns[0][i] >= 0) {
+                long[] ages = new long[width];
+                for (int j = 0; j < width; j++) {
+                    ages[j] = columns[j][i];
+                }
+                item = withAges.apply(item, ages);
+            }
+            result.add(item);
+        }
+        return result;
+    }
+
+    private static <T extends JobDiskItem> List<T> readJobs(DataInputStream data, String[] strings,
+                                                           JobFactory<T> factory) throws IOException {
+        int size = data.readInt();
+        String[] displayNames = readStrings(data, strings, size);
+        String[] paths = readStrings(data, strings, size);
+        String[] fullNames = readStrings(data, strings, size);
+        String[] urls = readStrings(data, strings, size);
+        long[] usages = readLongs(data, size);
+        long[] counts = readLongs(data, size);
+        List<T> jobs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            jobs.add(factory.create(displayNames[i], new File(paths[i]), usages[i], counts[i], fullNames[i], urls[i]));
+        }
+        return jobs;
+    }
+
+    private interface JobFactory<T extends JobDiskItem> {
+        T create(String displayName, File path, Long usage, Long count, String fullName, String url);
+    }
+
+    static void write(File file, List<DiskItem> directories, List<JobDiskItem> jobs) throws IOException {
+        write(file, directories, jobs, List.of());
+    }
+
+    /**
+     * Writes the snapshot to a temporary file which then replaces the previous one.
+     */
+    static void write(File file, List<DiskItem> directories, List<JobDiskItem> jobs, List<FolderDiskItem> folders)
+            throws IOException {
+        StringTable strings = new StringTable();
+        int[][] directoryColumns = {new int[directories.size()], new int[directories.size()]};
+        int i = 0;
+        for (DiskItem item : directories) {
+            directoryColumns[0][i] = strings.add(item.getDisplayName());
+            directoryColumns[1][i] = strings.add(item.getPath().getPath());
+            i++;
+        }
+        int[][] jobColumns = jobColumns(strings, jobs);
+        int[][] folderColumns = jobColumns(strings, folders);
+
+        DataFiles.write(file, MAGIC, VERSION, data -> {
+            data.writeInt(strings.values.size());
+            for (String value : strings.values) {
+                data.writeUTF(value);
+            }
+
+            data.writeInt(directories.size());
+            for (int[] column : directoryColumns) {
+                writeInts(data, column);
+            }
+            for (DiskItem item : directories) {
+                data.writeLong(valueOf(item.getUsage()));
+            }
+            for (DiskItem item : directories) {
+                data.writeLong(valueOf(item.getCount()));
+            }
+
+            writeJobs(data, jobColumns, jobs);
+            writeJobs(data, folderColumns, folders);
+            writeCategories(data, jobs);
+            writeAges(data, directories);
+            writeAges(data, jobs);
+        });
+    }
+
+    private static int[][] jobColumns(StringTable strings, List<? extends JobDiskItem> jobs) {
+        int[][] columns = {new int[jobs.size()], new int[jobs.size()], new int[jobs.size()], new int[jobs.size()]};
+        int i = 0;
+        for (JobDiskItem item : jobs) {
+            columns[0][i] = strings.add(item.getDisplayName());
+            columns[1][i] = strings.add(item.getPath().getPath());
+            columns[2][i] = strings.add(item.getFullName());
+            columns[3][i] = strings.add(item.getUrl());
+            i++;
+        }
+        return columns;
+    }
+
+    private static void writeJobs(DataOutputStream data, int[][] columns, List<? extends JobDiskItem> jobs)
+            throws IOException {
+        data.writeInt(jobs.size());
+        for (int[] column : columns) {
+            writeInts(data, column);
+        }
+        for (JobDiskItem item : jobs) {
+            data.writeLong(valueOf(item.getUsage()));
+        }
+        for (JobDiskItem item : jobs) {
+            data.writeLong(valueOf(item.getCount()));
+        }
+    }
+
+    private static void writeCategories(DataOutputStream data, List<JobDiskItem> jobs) throws IOException {
+        data.writeInt(UsageCategory.WIDTH);
+        for (int i = 0; i < UsageCategory.WIDTH; i++) {
+            for (JobDiskItem item : jobs) {
+                long[] categories = item.getCategoryUsages();
+                data.writeLong(categories != null ? categories[i] : -1);
+            }
+        }
+    }
+
+    private static void writeAges(DataOutputStream data, List<? extends DiskItem> items) throws IOException {
+        data.writeInt(UsageAge.WIDTH);
+        for (int i = 0; i < UsageAge.WIDTH; i++) {
+            for (DiskItem item : items) {
+                long[] ages = item.getAgeUsages();
+                data.writeLong(ages != null ? ages[i] : -1);
+            }
+        }
+    }
+
+    private static String[] readStrings(DataInputStream data, String[] strings, int size) throws IOException {
+        String[] column = new String[size];
+        for (int i = 0; i < size; i++) {
+            int index = data.readInt();
+            column[i] = index < 0 ? null : strings[index];
+        }
+        return column;
+    }
+
+    private static long[] readLongs(DataInputStream data, int size) throws IOException {
+        long[] column = new long[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = data.readLong();
+        }
+        return column;
+    }
+
+    private static long valueOf(Long value) {
+        // items loaded from old configurations may have no count
+        return value == null ? 0 : value;
+    }
+
+    private static void writeInts(DataOutputStream data, int[] column) throws IOException {
+        for (int value : column) {
+            data.writeInt(value);
+        }
+    }
+
+    /**
+     * Deduplicated strings, null is written as index -1.
+     */
+    private static final class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int add(String value) {
+            if (value == null) {
+                return -1;
+            }
+            return indexes.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Usage items indexed by path, with constant time updates.
+ *
+ * Readers get an immutable snapshot, only copied again once the store was modified.
+ *
+ * @param <T> type of items
+ */
+final class UsageStore<T extends DiskItem> {
+
+    private final ConcurrentMap<File, T> items = new ConcurrentHashMap<>();
+
+    private final AtomicLong modCount = new AtomicLong();
+
+    private volatile Snapshot<T> snapshot = new Snapshot<>(0, List.of());
+
+    private final Map<Comparator<? super T>, Snapshot<T>> sortedSnapshots = new ConcurrentHashMap<>();
+
+    private static final class Snapshot<T> {
+        private final long modCount;
+        private final List<T> items;
+
+        Snapshot(long modCount, List<T> items) {
+            this.modCount = modCount;
+            this.items = items;
+        }
+    }
+
+    private static File key(File path) {
+        return path.getAbsoluteFile();
+    }
+
+    T get(File path) {
+        return items.get(key(path));
+    }
+
+    void put(T item) {
+        items.put(key(item.getPath()), item);
+        modCount.incrementAndGet();
+    }
+
+    /**
+     * @return true if the item was added, false if there was already one for the same path
+     */
+    boolean putIfAbsent(T item) {
+        if (items.putIfAbsent(key(item.getPath()), item) != null) {
+            return false;
+        }
+        modCount.incrementAndGet();
+        return true;
+    }
+
+    void putAll(Collection<? extends T> newItems) {
+        for (T item : newItems) {
+            items.put(key(item.getPath()), item);
+        }
+        modCount.incrementAndGet();
+    }
+
+    /**
+     * Atomically replaces the item for a path, if any.
+     *
+     * @return the new item, or null if there was no item for this path
+     */
+    T update(File path, UnaryOperator<T> function) {
+        T updated = items.computeIfPresent(key(path), (k, item) -> function.apply(item));
+        if (updated != null) {
+            modCount.incrementAndGet();
+        }
+        return updated;
+    }
+
+    boolean remove(T item) {
+        if (items.remove(key(item.getPath()), item)) {
+            modCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    void clear() {
+        items.clear();
+        modCount.incrementAndGet();
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    /**
+     * Changes each time the store is modified.
+     */
+    long getModCount() {
+        return modCount.get();
+    }
+
+    /**
+     * @return an immutable copy of the items, shared by readers until the store is modified
+     */
+    List<T> snapshot() {
+        Snapshot<T> current = snapshot;
+        long count = modCount.get();
+        if (current.modCount != count) {
+            current = new Snapshot<>(count, List.copyOf(items.values()));
+            snapshot = current;
+        }
+        return current.items;
+    }
+
+    /**
+     * @param order a constant comparator, a sorted copy is kept for each one
+     * @return an immutable copy of the items sorted in the given order, shared until the store is modified
+     */
+    List<T> sorted(Comparator<? super T> order) {
+        long count = modCount.get();
+        Snapshot<T> current = sortedSnapshots.get(order);
+        if (current == null || current.modCount != count) {
+            List<T> items = new ArrayList<>(snapshot());
+            items.sort(order);
+            current = new Snapshot<>(count, Collections.unmodifiableList(items));
+            sortedSnapshots.put(order, current);
+        }
+        return current.items;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Usage thresholds of the jobs, folders and directories, and minimum free space of the file system, checked
+ * each time a usage is reported so alerts are raised while the scan goes on, see {@link UsageThresholdMonitor}.
+ *
+ * An alert is raised once a usage goes over its threshold, and only cleared once it goes back under the
+ * threshold minus the hysteresis, so a usage oscillating around its threshold doesn't raise it again and again.
+ * The same goes the other way round for the free space. Kept in memory only, alerts are raised again by the
+ * first scan after a restart.
+ */
+final class UsageThresholds {
+
+    /**
+     * Threshold in KiB of each job or folder full name, or directory display name.
+     */
+    private final Map<String, Long> thresholds;
+
+    private final long defaultJobThreshold;
+
+    private final int minFreeSpace;
+
+    private final int hysteresis;
+
+    private final Map<File, Alert> alerts = new ConcurrentHashMap<>();
+
+    /**
+     * @param thresholds threshold in KiB of each job or folder full name, or directory display name
+     * @param defaultJobThreshold threshold in KiB of the jobs without their own threshold, 0 for none
+     * @param minFreeSpace minimum percentage of free space of the file system, 0 for none
+     * @param hysteresis percentage of the threshold a usage must go back under, or of the minimum free space
+     *                   the free space must go back over, to clear its alert
+     */
+    UsageThresholds(Map<String, Long> thresholds, long defaultJobThreshold, int minFreeSpace, int hysteresis) {
+        this.thresholds = thresholds;
+        this.defaultJobThreshold = defaultJobThreshold;
+        this.minFreeSpace = minFreeSpace;
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * An item over its threshold, or a file system under its minimum free space.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Alert {
+        private final String displayName;
+        private final String url;
+        private final long usage;
+        private final long threshold;
+        private final boolean freeSpace;
+
+        Alert(String displayName, String url, long usage, long threshold, boolean freeSpace) {
+            this.displayName = displayName;
+            this.url = url;
+            this.usage = usage;
+            this.threshold = threshold;
+            this.freeSpace = freeSpace;
+        }
+
+        @Exported
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * @return URL of the job or folder, relative to the Jenkins root, or null for a directory
+         */
+        @Exported
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return usage in KiB, or free space for a file system
+         */
+        @Exported(name = "usageKB")
+        public long getUsage() {
+            return usage;
+        }
+
+        /**
+         * @return threshold in KiB, or minimum free space for a file system
+         */
+        @Exported(name = "thresholdKB")
+        public long getThreshold() {
+            return threshold;
+        }
+
+        @Exported
+        public boolean isFreeSpace() {
+            return freeSpace;
+        }
+
+        public String getUsageFormatted() {
+            return DiskItem.formatUsage(usage);
+        }
+
+        public String getThresholdFormatted() {
+            return DiskItem.formatUsage(threshold);
+        }
+    }
+
+    /**
+     * Raises or clears the alert of an item from its new usage, in constant time.
+     */
+    void check(DiskItem item) {
+        Long threshold;
+        String url = null;
+        if (item instanceof JobDiskItem) {
+            JobDiskItem job = (JobDiskItem) item;
+            threshold = thresholds.get(job.getFullName());
+            if (threshold == null && !(item instanceof FolderDiskItem) && defaultJobThreshold > 0) {
+                threshold = defaultJobThreshold;
+            }
+            url = job.getUrl();
+        } else {
+            threshold = thresholds.get(item.getDisplayName());
+        }
+        if (threshold == null || item.getUsage() == null) {
+            return;
+        }
+        long usage = item.getUsage();
+        if (usage > threshold || alerts.containsKey(item.getPath()) && usage >= threshold * (100 - hysteresis) / 100) {
+            alerts.put(item.getPath(), new Alert(item.getDisplayName(), url, usage, threshold, false));
+        } else {
+            alerts.remove(item.getPath());
+        }
+    }
+
+    /**
+     * Raises or clears the free space alert of the file system containing the given directory.
+     */
+    void checkFreeSpace(String displayName, File dir) {
+        long total = dir.getTotalSpace();
+        long usable = dir.getUsableSpace();
+        if (minFreeSpace <= 0 || total <= 0) {
+            // disabled or unknown
+            return;
+        }
+        long free = usable / 1024;
+        long min = total / 1024 * minFreeSpace / 100;
+        if (free < min || alerts.containsKey(dir) && free <= min * (100 + hysteresis) / 100) {
+            alerts.put(dir, new Alert(displayName, null, free, min, true));
+        } else {
+            alerts.remove(dir);
+        }
+    }
+
+    /**
+     * Clears the alerts of the items in the given directory, which was deleted or moved.
+     */
+    void remove(File dir) {
+        alerts.keySet().removeIf(path -> path.toPath().startsWith(dir.toPath()));
+    }
+
+    boolean hasAlerts() {
+        return !alerts.isEmpty();
+    }
+
+    /**
+     * @return the current alerts, by decreasing usage over threshold ratio
+     */
+    List<Alert> getAlerts() {
+        List<Alert> result = new ArrayList<>(alerts.values());
+        result.sort(Collections.reverseOrder((a, b) -> Double.compare(ratio(a), ratio(b))));
+        return result;
+    }
+
+    private static double ratio(Alert alert) {
+        if (alert.freeSpace) {
+            // the less free space, the more urgent
+            return alert.usage == 0 ? Double.MAX_VALUE : (double) alert.threshold / alert.usage;
+        }
+        return alert.threshold == 0 ? Double.MAX_VALUE : (double) alert.usage / alert.threshold;
+    }
+
+    /**
+     * @param value comma separated {@code name=size} pairs, see {@link #parseSize(String)}
+     * @return the threshold in KiB of each name, invalid entries are ignored
+     */
+    static Map<String, Long> parse(String value) {
+        Map<String, Long> thresholds = new HashMap<>();
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            // names may contain '=', sizes can't
+            int separator = entry.lastIndexOf('=');
+            long size = separator > 0 ? parseSize(entry.substring(separator + 1)) : -1;
+            if (size < 0) {
+                logger.log(Level.WARNING, "Ignoring threshold {0}, expecting name=size", entry);
+                continue;
+            }
+            thresholds.put(entry.substring(0, separator).trim(), size);
+        }
+        return thresholds;
+    }
+
+    /**
+     * @param value a size in bytes, optionally followed by a {@code K}, {@code M}, {@code G} or {@code T} binary unit,
+     *              for instance {@code 10G}
+     * @return the size in KiB, or -1 if invalid
+     */
+    static long parseSize(String value) {
+        String size = value.trim().toUpperCase(Locale.ROOT);
+        if (size.endsWith("B")) {
+            size = size.substring(0, size.length() - 1);
+        }
+        long unit = 1;
+        if (!size.isEmpty()) {
+            int index = "KMGT".indexOf(size.charAt(size.length() - 1));
+            if (index >= 0) {
+                unit = 1L << (10 * (index + 1));
+                size = size.substring(0, size.length() - 1).trim();
+            }
+        }
+        try {
+            long number = Long.parseLong(size);
+            return number < 0 ? -1 : number * unit / 1024;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(UsageThresholds.class.getName());
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import org.kohsuke.stapler.export.Exported;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * A job workspace on an agent with its usage information, the path is the one on the agent.
+ */
+public class WorkspaceDiskItem extends JobDiskItem {
+
+    private final String node;
+
+    WorkspaceDiskItem(String displayName, File path, Long size, Long count, String fullName, String url, String node) {
+        super(displayName, path, size, count, fullName, url);
+        this.node = node;
+    }
+
+    @Override
+    WorkspaceDiskItem withUsage(Long size, Long count) {
+        return new WorkspaceDiskItem(getDisplayName(), getPath(), size, count, getFullName(), getUrl(), node);
+    }
+
+    /**
+     * @return name of the agent holding this workspace
+     */
+    @Exported
+    public String getNode() {
+        return node;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && Objects.equals(node, ((WorkspaceDiskItem) o).node);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getPath(), node);
+    }
+}
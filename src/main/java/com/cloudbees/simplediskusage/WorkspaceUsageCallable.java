@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.simplediskusage;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the usage of job workspaces on the agent holding them, so the walk and its throttling
+ * happen there and only one usage and file count per workspace goes back through the channel.
+ *
+ * A workspace also owns its {@code @2}, {@code @tmp}, {@code @libs}... siblings, created for
+ * concurrent builds and by Pipeline.
+ */
+class WorkspaceUsageCallable extends MasterToSlaveFileCallable<long[][]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> workspaces;
+
+    /**
+     * @param workspaces remote paths of the workspaces to measure
+     */
+    WorkspaceUsageCallable(List<String> workspaces) {
+        this.workspaces = workspaces;
+    }
+
+    /**
+     * @return usage in bytes and file count of each workspace, in the order they were given,
+     *         or null for the workspaces which don't exist on this agent
+     */
+    @Override
+    public long[][] invoke(File workspaceRoot, VirtualChannel channel) throws IOException, InterruptedException {
+        Map<String, Integer> indexes = new HashMap<>();
+        Set<Path> parents = new HashSet<>();
+        for (int i = 0; i < workspaces.size(); i++) {
+            Path workspace = Paths.get(workspaces.get(i));
+            indexes.put(workspace.toString(), i);
+            if (workspace.getParent() != null) {
+                parents.add(workspace.getParent());
+            }
+        }
+
+        // list each parent once rather than looking for the siblings of each workspace
+        Map<Path, Integer> owners = new HashMap<>();
+        for (Path parent : parents) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(parent)) {
+                for (Path child : children) {
+                    Integer index = getOwner(child, indexes);
+                    if (index != null && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        owners.put(child, index);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // no workspace there
+            }
+        }
+
+        long[][] totals = new long[workspaces.size()][];
+        UsageComputation uc = new UsageComputation(new ArrayList<>(owners.keySet()));
+        for (Map.Entry<Path, Integer> owner : owners.entrySet()) {
+            int index = owner.getValue();
+            uc.addListener(owner.getKey(), (dir, usage, count) -> {
+                if (totals[index] == null) {
+                    totals[index] = new long[2];
+                }
+                totals[index][0] += usage;
+                totals[index][1] += count;
+            });
+        }
+        uc.compute();
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return totals;
+    }
+
+    private static Integer getOwner(Path child, Map<String, Integer> indexes) {
+        Integer index = indexes.get(child.toString());
+        if (index == null) {
+            String name = child.getFileName().toString();
+            int at = name.indexOf('@');
+            if (at > 0) {
+                index = indexes.get(child.resolveSibling(name.substring(0, at)).toString());
+            }
+        }
+        return index;
+    }
+}
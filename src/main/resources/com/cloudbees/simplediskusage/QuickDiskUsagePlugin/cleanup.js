@@ -0,0 +1,92 @@
+function formatCleanupUsage(usageKB) {
+    const units = ["KiB", "MiB", "GiB", "TiB"];
+    let value = usageKB;
+    let unit = 0;
+    while (value >= 1024 && unit < units.length - 1) {
+        value = value / 1024;
+        unit++;
+    }
+    return unit === 0 ? value + " " + units[0] : value.toFixed(1) + " " + units[unit];
+}
+
+function createCleanupCell(text, right) {
+    const cell = document.createElement("td");
+    if (right) {
+        cell.style.textAlign = "right";
+    }
+    cell.textContent = text;
+    return cell;
+}
+
+function showCleanupEstimate(tbody, estimate) {
+    const rows = estimate.jobs.map((job) => {
+        const row = document.createElement("tr");
+        const name = document.createElement("td");
+        const link = document.createElement("a");
+        link.href = tbody.dataset.rootUrl + "/" + job.url;
+        link.className = "jenkins-table__link model-link inside";
+        link.textContent = job.fullName;
+        name.append(link);
+        row.append(name);
+        row.append(createCleanupCell(formatCleanupUsage(job.usageKB), true));
+        row.append(createCleanupCell(job.builds, true));
+        row.append(createCleanupCell(formatCleanupUsage(job.reclaimableKB), true));
+        return row;
+    });
+    const total = document.createElement("tr");
+    total.append(createCleanupCell(estimate.jobs.length + " jobs"));
+    total.append(createCleanupCell("", true));
+    total.append(createCleanupCell("", true));
+    total.append(createCleanupCell(formatCleanupUsage(estimate.reclaimableKB), true));
+    tbody.replaceChildren(...rows, total);
+}
+
+function showCleanupProgress(form, progress) {
+    const element = document.getElementById("disk-usage-cleanup-progress");
+    if (progress.total === undefined) {
+        element.textContent = "";
+        return;
+    }
+    const done = progress.completed + progress.failed + progress.skipped;
+    element.textContent = (progress.running ? form.dataset.running : form.dataset.done) + ": " + done + " / "
+        + progress.total + " (" + progress.failed + " " + form.dataset.failed + "), "
+        + formatCleanupUsage(progress.reclaimedKB) + " / " + formatCleanupUsage(progress.estimatedKB);
+    if (progress.running) {
+        setTimeout(() => fetchCleanup(form, "cleanupProgress"), 2000);
+    }
+}
+
+function fetchCleanup(form, action, options) {
+    const params = new URLSearchParams(new FormData(form));
+    fetch(action + "?" + params, options).then((rsp) => {
+        if (!rsp.ok) {
+            return rsp.text().then((text) => {
+                throw new Error(text || rsp.statusText);
+            });
+        }
+        return rsp.json();
+    }).then((json) => {
+        if (action === "cleanupEstimate") {
+            showCleanupEstimate(document.getElementById("disk-usage-cleanup-estimate"), json);
+        } else {
+            showCleanupProgress(form, json);
+        }
+    }).catch((e) => {
+        notificationBar.show(e.message, notificationBar.ERROR);
+    });
+}
+
+Behaviour.specify("#disk-usage-cleanup", "disk-usage-cleanup", 0, function(form) {
+    form.querySelector("[data-action=estimate]").addEventListener("click", () => fetchCleanup(form, "cleanupEstimate"));
+    const clean = form.querySelector("[data-action=clean]");
+    if (clean) {
+        clean.addEventListener("click", () => {
+            if (confirm(clean.dataset.confirm)) {
+                fetchCleanup(form, "bulkClean", {method: "post", headers: crumb.wrap({})});
+            }
+        });
+        form.querySelector("[data-action=cancel]").addEventListener("click",
+            () => fetchCleanup(form, "cancelCleanup", {method: "post", headers: crumb.wrap({})}));
+    }
+    fetchCleanup(form, "cleanupProgress");
+});
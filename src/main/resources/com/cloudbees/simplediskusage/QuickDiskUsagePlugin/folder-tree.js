@@ -0,0 +1,112 @@
+function formatDiskUsage(usageKB) {
+    const units = ["KiB", "MiB", "GiB", "TiB"];
+    let value = usageKB;
+    let unit = 0;
+    while (value >= 1024 && unit < units.length - 1) {
+        value = value / 1024;
+        unit++;
+    }
+    return unit === 0 ? value + " " + units[0] : value.toFixed(1) + " " + units[unit];
+}
+
+function createDiskUsageCell(text) {
+    const cell = document.createElement("td");
+    cell.style.textAlign = "right";
+    cell.textContent = text;
+    return cell;
+}
+
+function createDiskUsageRow(tbody, item, depth) {
+    const row = document.createElement("tr");
+    row.dataset.depth = depth;
+    const name = document.createElement("td");
+    name.style.paddingLeft = (depth * 1.5 + 0.5) + "rem";
+    if (item.folder) {
+        const toggle = document.createElement("button");
+        toggle.className = "jenkins-button jenkins-button--tertiary";
+        toggle.textContent = "+";
+        toggle.addEventListener("click", function () {
+            toggleDiskUsageFolder(tbody, row, item.fullName, toggle);
+        });
+        name.append(toggle);
+    }
+    const link = document.createElement("a");
+    link.href = tbody.dataset.rootUrl + "/" + item.url;
+    link.className = "jenkins-table__link model-link inside";
+    // the display name is the full one, the parents are already shown above
+    link.textContent = item.displayName.split(" » ").pop();
+    name.append(link);
+    row.append(name);
+    row.append(createDiskUsageCell(formatDiskUsage(item.usageKB)));
+    row.append(createDiskUsageCell(item.count > 0 ? item.count : "N/A"));
+    return row;
+}
+
+function createDiskUsageMoreRow(tbody, folder, depth, cursor) {
+    const row = document.createElement("tr");
+    row.dataset.depth = depth;
+    const cell = document.createElement("td");
+    cell.colSpan = 3;
+    cell.style.paddingLeft = (depth * 1.5 + 0.5) + "rem";
+    const button = document.createElement("button");
+    button.className = "jenkins-button jenkins-button--tertiary";
+    button.textContent = tbody.dataset.more;
+    button.addEventListener("click", function () {
+        const previous = row.previousElementSibling;
+        row.remove();
+        loadDiskUsageTree(tbody, folder, depth, previous, cursor);
+    });
+    cell.append(button);
+    row.append(cell);
+    return row;
+}
+
+/**
+ * Loads a page of the items of a folder, and inserts them after the given row, or at the end if null.
+ */
+function loadDiskUsageTree(tbody, folder, depth, after, cursor) {
+    const params = new URLSearchParams({folder: folder, minUsage: 1});
+    if (cursor) {
+        params.set("cursor", cursor);
+    }
+    fetch("tree?" + params).then((rsp) => {
+        if (!rsp.ok) {
+            throw new Error(rsp.statusText);
+        }
+        return rsp.json();
+    }).then((page) => {
+        const rows = page.items.map((item) => createDiskUsageRow(tbody, item, depth));
+        if (page.nextCursor) {
+            rows.push(createDiskUsageMoreRow(tbody, folder, depth, page.nextCursor));
+        }
+        if (after) {
+            after.after(...rows);
+        } else {
+            tbody.append(...rows);
+        }
+    }).catch(() => {
+        notificationBar.show("Failed to load the folder usages", notificationBar.ERROR);
+    });
+}
+
+function toggleDiskUsageFolder(tbody, row, folder, toggle) {
+    const depth = Number(row.dataset.depth);
+    if (row.dataset.expanded) {
+        delete row.dataset.expanded;
+        toggle.textContent = "+";
+        let next = row.nextElementSibling;
+        while (next && Number(next.dataset.depth) > depth) {
+            const following = next.nextElementSibling;
+            next.remove();
+            next = following;
+        }
+    } else {
+        row.dataset.expanded = "true";
+        toggle.textContent = "−";
+        loadDiskUsageTree(tbody, folder, depth + 1, row);
+    }
+}
+
+Behaviour.specify("#disk-usage-tree", "disk-usage-tree", 0, function(tbody) {
+    loadDiskUsageTree(tbody, "", 0, null);
+});
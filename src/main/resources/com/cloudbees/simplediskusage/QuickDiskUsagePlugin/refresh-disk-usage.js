@@ -15,3 +15,21 @@ function refreshDiskUsage(a, ev) {
 Behaviour.specify("#refresh-disk-usage", "refresh-disk-usage", 0, function(button) {
     button.addEventListener("click", refreshDiskUsage);
 });
+
+function cancelDiskUsage(a, ev) {
+    fetch("cancel", {
+        method: "post",
+        headers: crumb.wrap({}),
+    }).then((rsp) => {
+        if (rsp.ok) {
+            notificationBar.show("Update cancelled", notificationBar.SUCCESS);
+        } else {
+            notificationBar.show("Failed to cancel the update", notificationBar.ERROR);
+        }
+    });
+    ev.preventDefault();
+}
+
+Behaviour.specify("#cancel-disk-usage", "cancel-disk-usage", 0, function(button) {
+    button.addEventListener("click", cancelDiskUsage);
+});
@@ -0,0 +1,31 @@
+package com.cloudbees.simplediskusage;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the JMH benchmarks of this package, only when the {@code benchmark} system property is set:
+ * {@code mvn test -Dbenchmark -Dtest=BenchmarkRunner}. {@code -Dbenchmark=<regexp>} only runs the
+ * matching benchmarks. Results are written to {@code jmh-report.json}.
+ */
+class BenchmarkRunner {
+
+    @Test
+    void runJmhBenchmarks() throws Exception {
+        String benchmark = System.getProperty("benchmark");
+        assumeTrue(benchmark != null, "benchmarks are only run with -Dbenchmark");
+        new Runner(new OptionsBuilder()
+                .include(benchmark.isEmpty() || benchmark.equals("true")
+                        ? getClass().getPackageName() + "\\..*Benchmark" : benchmark)
+                .forks(1)
+                .shouldFailOnError(true)
+                .shouldDoGC(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-report.json")
+                .build()).run();
+    }
+}
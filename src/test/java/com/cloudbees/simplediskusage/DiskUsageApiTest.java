@@ -1,18 +1,24 @@
 package com.cloudbees.simplediskusage;
 
 import hudson.model.FreeStyleProject;
+import hudson.model.Items;
+import hudson.tasks.LogRotator;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.WebRequest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -50,7 +56,7 @@ class DiskUsageApiTest {
         assertNotNull(plugin);
 
         // Inject a known item directly so the test doesn't depend on the slow async scan
-        inject(plugin, "directoriesUsages", List.of(
+        inject(plugin, "directories", List.of(
                 new DiskItem("TEST_DIR", new File("/tmp"), 2048L, 42L)));
         markScanComplete(plugin);
 
@@ -78,7 +84,7 @@ class DiskUsageApiTest {
         var plugin = j.jenkins.getPlugin(QuickDiskUsagePlugin.class);
         assertNotNull(plugin);
 
-        inject(plugin, "jobsUsages", List.of(
+        inject(plugin, "jobs", List.of(
                 new JobDiskItem(project, 512L, 7L)));
         markScanComplete(plugin);
 
@@ -125,6 +131,244 @@ class DiskUsageApiTest {
         assertTrue(usageKB <= 2048, "expected usageKB <= 2048, got " + usageKB);
     }
 
+    @Test
+    void jobUsageIsUpdatedWhenBuildCompletes() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("event-job");
+        var plugin = j.jenkins.getPlugin(QuickDiskUsagePlugin.class);
+        assertNotNull(plugin);
+
+        inject(plugin, "jobs", List.of(new JobDiskItem(project, 0L, 0L)));
+        markScanComplete(plugin);
+
+        j.buildAndAssertSuccess(project);
+
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (plugin.getJobsUsages().get(0).getCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        var item = plugin.getJobsUsages().get(0);
+        assertEquals("event-job", item.getFullName());
+        assertTrue(item.getCount() > 0, "build files should be counted without a rescan");
+    }
+
+    @Test
+    void usageSnapshotRoundTrip() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("snapshot-job");
+        var file = new File(j.jenkins.getRootDir(), "snapshot-test/usages.bin");
+
+        UsageSnapshot.write(file,
+                List.of(new DiskItem("TEST_DIR", new File("/tmp"), 2048L, 42L)),
+                List.of(new JobDiskItem(project, 512L, 7L)));
+        var snapshot = UsageSnapshot.read(file);
+
+        assertNotNull(snapshot);
+        var dir = snapshot.getDirectories().get(0);
+        assertEquals("TEST_DIR", dir.getDisplayName());
+        assertEquals(new File("/tmp"), dir.getPath());
+        assertEquals(2048L, dir.getUsage());
+        assertEquals(42L, dir.getCount());
+        var job = snapshot.getJobs().get(0);
+        assertEquals("snapshot-job", job.getFullName());
+        assertEquals(project.getUrl(), job.getUrl());
+        assertEquals(project.getRootDir(), job.getPath());
+        assertEquals(512L, job.getUsage());
+        assertEquals(7L, job.getCount());
+    }
+
+    @Test
+    void usagesAreMigratedFromXml() throws Exception {
+        var plugin = j.jenkins.getPlugin(QuickDiskUsagePlugin.class);
+        assertNotNull(plugin);
+        var dir = j.jenkins.getRootDir();
+
+        // configuration as written by previous versions, with a recent scan so no refresh is triggered
+        Files.writeString(new File(dir, "cloudbees-disk-usage-simple.xml").toPath(),
+                "<com.cloudbees.simplediskusage.QuickDiskUsagePlugin>\n"
+                + "  <directoriesUsages>\n"
+                + "    <com.cloudbees.simplediskusage.DiskItem>\n"
+                + "      <displayName>MIGRATED_DIR</displayName>\n"
+                + "      <path>" + dir.getAbsolutePath() + "</path>\n"
+                + "      <usage>12</usage>\n"
+                + "      <count>3</count>\n"
+                + "    </com.cloudbees.simplediskusage.DiskItem>\n"
+                + "  </directoriesUsages>\n"
+                + "  <jobsUsages/>\n"
+                + "  <lastRunStart>" + (System.currentTimeMillis() - 1000) + "</lastRunStart>\n"
+                + "  <lastRunEnd>" + System.currentTimeMillis() + "</lastRunEnd>\n"
+                + "</com.cloudbees.simplediskusage.QuickDiskUsagePlugin>\n");
+        inject(plugin, "directories", List.<DiskItem>of());
+        plugin.start();
+
+        var item = plugin.getDirectoriesUsages().get(0);
+        assertEquals("MIGRATED_DIR", item.getDisplayName());
+        assertEquals(12L, item.getUsage());
+        assertTrue(new File(dir, "cloudbees-disk-usage-simple/usages.bin").exists(), "snapshot not written");
+        var xml = Files.readString(new File(dir, "cloudbees-disk-usage-simple.xml").toPath());
+        assertFalse(xml.contains("directoriesUsages"), "usages should not be kept in the XML configuration");
+    }
+
+    @Test
+    void queryReturnsPagesOfLargestItems() throws Exception {
+        var plugin = j.jenkins.getPlugin(QuickDiskUsagePlugin.class);
+        assertNotNull(plugin);
+        inject(plugin, "directories", List.of(
+                new DiskItem("small", new File("/small"), 1L, 1L),
+                new DiskItem("medium", new File("/medium"), 10L, 1L),
+                new DiskItem("large", new File("/large"), 100L, 1L),
+                new DiskItem("empty", new File("/empty"), 0L, 0L)));
+        markScanComplete(plugin);
+
+        var wc = j.createWebClient();
+        var response = wc.goTo("manage/disk-usage-simple/directoriesQuery?limit=2&minUsage=1", "application/json");
+        var page = JSONObject.fromObject(response.getWebResponse().getContentAsString());
+        var items = page.getJSONArray("items");
+        assertEquals(2, items.size());
+        assertEquals("large", items.getJSONObject(0).getString("displayName"));
+        assertEquals("medium", items.getJSONObject(1).getString("displayName"));
+
+        response = wc.goTo("manage/disk-usage-simple/directoriesQuery?limit=2&minUsage=1&cursor="
+                + page.getString("nextCursor"), "application/json");
+        page = JSONObject.fromObject(response.getWebResponse().getContentAsString());
+        items = page.getJSONArray("items");
+        assertEquals(1, items.size());
+        assertEquals("small", items.getJSONObject(0).getString("displayName"));
+        assertFalse(page.has("nextCursor"), "last page should not have a cursor");
+
+        var etag = response.getWebResponse().getResponseHeaderValue("ETag");
+        assertNotNull(etag, "missing ETag");
+        wc.getOptions().setThrowExceptionOnFailingStatusCode(false);
+        wc.addRequestHeader("If-None-Match", etag);
+        response = wc.goTo("manage/disk-usage-simple/directoriesQuery", null);
+        assertEquals(304, response.getWebResponse().getStatusCode());
+    }
+
+    @Test
+    void treeListsOneFolderLevelAtATime() throws Exception {
+        var plugin = j.jenkins.getPlugin(QuickDiskUsagePlugin.class);
+        assertNotNull(plugin);
+        MockFolder team = j.createFolder("team");
+        MockFolder nested = team.createProject(MockFolder.class, "nested");
+        FreeStyleProject app = team.createProject(FreeStyleProject.class, "app");
+        FreeStyleProject lib = nested.createProject(FreeStyleProject.class, "lib");
+        FreeStyleProject solo = j.createFreeStyleProject("solo");
+        inject(plugin, "folders", List.of(new FolderDiskItem(team, 300L, 3L), new FolderDiskItem(nested, 100L, 1L)));
+        inject(plugin, "jobs", List.of(new JobDiskItem(app, 200L, 2L), new JobDiskItem(lib, 100L, 1L),
+                new JobDiskItem(solo, 50L, 1L)));
+        markScanComplete(plugin);
+
+        var wc = j.createWebClient();
+        var items = JSONObject.fromObject(wc.goTo("manage/disk-usage-simple/tree", "application/json")
+                .getWebResponse().getContentAsString()).getJSONArray("items");
+        assertEquals(2, items.size());
+        assertEquals("team", items.getJSONObject(0).getString("fullName"));
+        assertTrue(items.getJSONObject(0).getBoolean("folder"));
+        assertEquals(300L, items.getJSONObject(0).getLong("usageKB"));
+        assertEquals("solo", items.getJSONObject(1).getString("fullName"));
+        assertFalse(items.getJSONObject(1).has("folder"));
+
+        items = JSONObject.fromObject(wc.goTo("manage/disk-usage-simple/tree?folder=team", "application/json")
+                .getWebResponse().getContentAsString()).getJSONArray("items");
+        assertEquals(2, items.size());
+        assertEquals("team/app", items.getJSONObject(0).getString("fullName"));
+        assertEquals("team/nested", items.getJSONObject(1).getString("fullName"));
+
+        items = JSONObject.fromObject(wc.goTo("manage/disk-usage-simple/tree?folder=team/nested&limit=1",
+                "application/json").getWebResponse().getContentAsString()).getJSONArray("items");
+        assertEquals(1, items.size());
+        assertEquals("team/nested/lib", items.getJSONObject(0).getString("fullName"));
+    }
+
+    @Test
+    void movedJobUsageMovesBetweenFolders() throws Exception {
+        var plugin = j.jenkins.getPlugin(QuickDiskUsagePlugin.class);
+        assertNotNull(plugin);
+        MockFolder team = j.createFolder("team");
+        MockFolder other = j.createFolder("other");
+        FreeStyleProject app = team.createProject(FreeStyleProject.class, "app");
+        inject(plugin, "folders", List.of(new FolderDiskItem(team, 300L, 3L), new FolderDiskItem(other, 0L, 0L)));
+        inject(plugin, "jobs", List.of(new JobDiskItem(app, 200L, 2L)));
+        markScanComplete(plugin);
+
+        Items.move(app, other);
+
+        var wc = j.createWebClient();
+        long deadline = System.currentTimeMillis() + 60_000;
+        JSONArray items;
+        do {
+            Thread.sleep(100);
+            items = JSONObject.fromObject(wc.goTo("manage/disk-usage-simple/tree", "application/json")
+                    .getWebResponse().getContentAsString()).getJSONArray("items");
+        } while (findByFullName(items, "team").getLong("usageKB") == 300L && System.currentTimeMillis() < deadline);
+        assertEquals(100L, findByFullName(items, "team").getLong("usageKB"));
+        assertEquals(1L, findByFullName(items, "team").getLong("count"));
+        assertEquals(200L, findByFullName(items, "other").getLong("usageKB"));
+        assertEquals(2L, findByFullName(items, "other").getLong("count"));
+    }
+
+    @Test
+    void topGrowersAreAnsweredFromHistory() throws Exception {
+        var plugin = j.jenkins.getPlugin(QuickDiskUsagePlugin.class);
+        assertNotNull(plugin);
+        var growing = j.createFreeStyleProject("growing-job");
+        var stable = j.createFreeStyleProject("stable-job");
+        Method getUsageHistory = QuickDiskUsagePlugin.class.getDeclaredMethod("getUsageHistory");
+        getUsageHistory.setAccessible(true);
+        var history = (UsageHistory) getUsageHistory.invoke(plugin);
+
+        long dayAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        history.record(dayAgo, List.of(new JobDiskItem(growing, 100L, 1L), new JobDiskItem(stable, 500L, 1L)));
+        inject(plugin, "jobs", List.of(new JobDiskItem(growing, 1100L, 2L), new JobDiskItem(stable, 500L, 1L)));
+        history.record(System.currentTimeMillis(), plugin.getJobsUsages());
+
+        var response = j.createWebClient().goTo("manage/disk-usage-simple/topGrowers?since=" + dayAgo + "&limit=1",
+                "application/json");
+        var items = JSONObject.fromObject(response.getWebResponse().getContentAsString()).getJSONArray("items");
+        assertEquals(1, items.size());
+        assertEquals("growing-job", items.getJSONObject(0).getString("fullName"));
+        assertEquals(1000L, items.getJSONObject(0).getJSONObject("growth").getLong("usageKB"));
+    }
+
+    @Test
+    void bulkCleanupAppliesBuildDiscarders() throws Exception {
+        var plugin = j.jenkins.getPlugin(QuickDiskUsagePlugin.class);
+        assertNotNull(plugin);
+        FreeStyleProject project = j.createFreeStyleProject("cleanup-job");
+        for (int i = 0; i < 3; i++) {
+            j.buildAndAssertSuccess(project);
+        }
+        project.setBuildDiscarder(new LogRotator(-1, 1, -1, -1));
+        inject(plugin, "jobs", List.of(new JobDiskItem(project, 1_000_000L, 1_000L)));
+        markScanComplete(plugin);
+
+        var wc = j.createWebClient();
+        var estimate = JSONObject.fromObject(wc.goTo("manage/disk-usage-simple/cleanupEstimate?minUsage=1G",
+                "application/json").getWebResponse().getContentAsString());
+        assertEquals(0, estimate.getJSONArray("jobs").size());
+        estimate = JSONObject.fromObject(wc.goTo("manage/disk-usage-simple/cleanupEstimate?minUsage=1M",
+                "application/json").getWebResponse().getContentAsString());
+        assertEquals("cleanup-job", estimate.getJSONArray("jobs").getJSONObject(0).getString("fullName"));
+
+        wc.getPage(new WebRequest(wc.createCrumbedUrl("manage/disk-usage-simple/bulkClean"), HttpMethod.POST));
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (plugin.getJobsUsages().get(0).getUsage() == 1_000_000L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, project.getBuilds().size());
+        assertTrue(plugin.getJobsUsages().get(0).getUsage() < 1_000_000L, "usage should be updated without a rescan");
+        assertNotNull(plugin.getJobsUsages().get(0).getAgeUsages(), "ages should be kept by the cleanup");
+        var progress = JSONObject.fromObject(wc.goTo("manage/disk-usage-simple/cleanupProgress", "application/json")
+                .getWebResponse().getContentAsString());
+        assertEquals(1, progress.getInt("completed"));
+    }
+
+    @Test
+    void metricsEndpointIsReachable() throws Exception {
+        var response = j.createWebClient().goTo("manage/disk-usage-simple/metrics", "application/json");
+        var json = JSONObject.fromObject(response.getWebResponse().getContentAsString());
+        assertTrue(json.has("scans"), "missing scans");
+        assertTrue(json.getJSONObject("cumulative").has("filesPerSecond"), "missing filesPerSecond");
+    }
+
     @Test
     void xmlEndpointIsReachable() throws Exception {
         var response = j.createWebClient().goTo("manage/disk-usage-simple/api/xml", "application/xml");
@@ -137,13 +381,13 @@ class DiskUsageApiTest {
     // --- helpers ---
 
     @SuppressWarnings("unchecked")
-    private <T> void inject(QuickDiskUsagePlugin plugin, String fieldName, List<T> items)
+    private <T extends DiskItem> void inject(QuickDiskUsagePlugin plugin, String fieldName, List<T> items)
             throws ReflectiveOperationException {
         Field f = QuickDiskUsagePlugin.class.getDeclaredField(fieldName);
         f.setAccessible(true);
-        var list = (CopyOnWriteArrayList<T>) f.get(plugin);
-        list.clear();
-        list.addAll(items);
+        var store = (UsageStore<T>) f.get(plugin);
+        store.clear();
+        store.putAll(items);
     }
 
     private void markScanComplete(QuickDiskUsagePlugin plugin) throws ReflectiveOperationException {
@@ -0,0 +1,36 @@
+package com.cloudbees.simplediskusage;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuickDiskUsagePeriodicWorkTest {
+
+    @Test
+    void scansStartWithinWindows() {
+        var windows = QuickDiskUsagePeriodicWork.parseWindows("22:00-06:00, 12:00-13:00, invalid");
+        assertEquals(2, windows.size());
+        assertTrue(QuickDiskUsagePeriodicWork.isInWindow(windows, LocalTime.of(23, 0)));
+        assertTrue(QuickDiskUsagePeriodicWork.isInWindow(windows, LocalTime.of(5, 59)));
+        assertTrue(QuickDiskUsagePeriodicWork.isInWindow(windows, LocalTime.of(12, 30)));
+        assertFalse(QuickDiskUsagePeriodicWork.isInWindow(windows, LocalTime.of(6, 0)));
+        assertFalse(QuickDiskUsagePeriodicWork.isInWindow(windows, LocalTime.of(18, 0)));
+        assertTrue(QuickDiskUsagePeriodicWork.isInWindow(List.of(), LocalTime.of(18, 0)));
+    }
+
+    @Test
+    void cancelledScansAreNotRestartedRightAway() {
+        long interval = QuickDiskUsagePlugin.SCAN_INTERVAL;
+        long now = 10 * interval;
+        assertTrue(QuickDiskUsagePeriodicWork.isDue(now, now - interval, 0));
+        assertFalse(QuickDiskUsagePeriodicWork.isDue(now, now - interval / 2, 0));
+        // a cancelled scan doesn't update the end of the last completed one
+        assertFalse(QuickDiskUsagePeriodicWork.isDue(now, now - interval, now + interval));
+        assertTrue(QuickDiskUsagePeriodicWork.isDue(now + interval, now - interval, now + interval));
+    }
+}
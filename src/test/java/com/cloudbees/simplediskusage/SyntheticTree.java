@@ -0,0 +1,110 @@
+package com.cloudbees.simplediskusage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates directory trees with the shapes the scanner has to deal with, for benchmarks.
+ */
+enum SyntheticTree {
+    /**
+     * 200 nested directories with a few files each.
+     */
+    DEEP {
+        @Override
+        void create(Path root, List<Path> directories) throws IOException {
+            Path dir = root;
+            for (int i = 0; i < 200; i++) {
+                dir = Files.createDirectories(dir.resolve("d" + i));
+                directories.add(dir);
+                for (int j = 0; j < 5; j++) {
+                    write(dir.resolve("f" + j), 1024);
+                }
+            }
+        }
+    },
+    /**
+     * A single directory with 20k files.
+     */
+    WIDE {
+        @Override
+        void create(Path root, List<Path> directories) throws IOException {
+            Path dir = Files.createDirectories(root.resolve("wide"));
+            directories.add(dir);
+            for (int i = 0; i < 20_000; i++) {
+                write(dir.resolve("f" + i), 100);
+            }
+        }
+    },
+    /**
+     * 100 directories of 500 tiny files.
+     */
+    TINY {
+        @Override
+        void create(Path root, List<Path> directories) throws IOException {
+            for (int i = 0; i < 100; i++) {
+                Path dir = Files.createDirectories(root.resolve("d" + i));
+                directories.add(dir);
+                for (int j = 0; j < 500; j++) {
+                    write(dir.resolve("f" + j), 10);
+                }
+            }
+        }
+    },
+    /**
+     * A few sparse files of 1 GiB.
+     */
+    HUGE {
+        @Override
+        void create(Path root, List<Path> directories) throws IOException {
+            Path dir = Files.createDirectories(root.resolve("huge"));
+            directories.add(dir);
+            for (int i = 0; i < 4; i++) {
+                try (RandomAccessFile file = new RandomAccessFile(dir.resolve("f" + i).toFile(), "rw")) {
+                    file.setLength(1L << 30);
+                }
+            }
+        }
+    },
+    /**
+     * JENKINS_HOME like layout: 200 jobs of 20 builds, with logs and archived artifacts.
+     */
+    JENKINS {
+        @Override
+        void create(Path root, List<Path> directories) throws IOException {
+            for (int i = 0; i < 200; i++) {
+                Path job = Files.createDirectories(root.resolve("jobs/job" + i));
+                directories.add(job);
+                write(job.resolve("config.xml"), 2048);
+                for (int j = 1; j <= 20; j++) {
+                    Path build = Files.createDirectories(job.resolve("builds/" + j));
+                    write(build.resolve("build.xml"), 4096);
+                    write(build.resolve("log"), 50_000);
+                    write(Files.createDirectories(build.resolve("archive")).resolve("app.jar"), 100_000);
+                }
+            }
+        }
+    };
+
+    /**
+     * Creates the tree.
+     *
+     * @param root an empty directory
+     * @param directories collects the directories a listener could be registered on
+     */
+    abstract void create(Path root, List<Path> directories) throws IOException;
+
+    List<Path> create(Path root) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        create(root, directories);
+        return directories;
+    }
+
+    private static void write(Path file, int size) throws IOException {
+        Files.write(file, new byte[size]);
+    }
+}
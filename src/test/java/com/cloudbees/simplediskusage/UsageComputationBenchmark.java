@@ -0,0 +1,143 @@
+package com.cloudbees.simplediskusage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Walks synthetic trees with the different strategies, listener counts and throttles.
+ * Trees are created once per trial, so the file system cache is warm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class UsageComputationBenchmark {
+
+    @Param({"DEEP", "WIDE", "TINY", "HUGE", "JENKINS"})
+    public SyntheticTree tree;
+
+    /**
+     * {@code sequential} walk, {@code parallel} walk with 4 threads, {@code incremental} walk with a warm index,
+     * {@code compact} sequential walk with the compact walker, {@code production} walk configured as the scans
+     * by default: warm index with sealed builds, categories and {@link QuickDiskUsagePlugin#PARALLELISM} threads.
+     */
+    @Param({"sequential", "parallel", "incremental", "compact", "production"})
+    public String strategy;
+
+    @Param({"10", "10000"})
+    public int listeners;
+
+    /**
+     * {@code none}, or one of the policies selected by {@link QuickDiskUsagePlugin#THROTTLE}, with the default rate.
+     * The {@code -overhead} variants keep track of the walk as the policy does but never sleep, compared to
+     * {@code none} they give the cost of the throttle itself rather than the throttled throughput.
+     */
+    @Param({"none", "dutycycle", "dutycycle-overhead", "tokenbucket", "tokenbucket-overhead"})
+    public String throttle;
+
+    private Path root;
+
+    private List<Path> directories;
+
+    private DirectoryIndex index;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = Files.createTempDirectory("usage-computation-benchmark");
+        directories = tree.create(root);
+        if (strategy.equals("incremental") || strategy.equals("production")) {
+            index = new DirectoryIndex();
+            newComputation(usage -> { }).compute();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void compute(Blackhole blackhole) throws IOException {
+        UsageComputation uc = newComputation(blackhole::consume);
+        if (strategy.equals("parallel")) {
+            uc.compute(4);
+        } else if (strategy.equals("production")) {
+            uc.compute(QuickDiskUsagePlugin.PARALLELISM);
+        } else {
+            uc.compute();
+        }
+    }
+
+    private UsageComputation newComputation(LongConsumer sink) {
+        UsageComputation uc = new UsageComputation(List.of(root));
+        UsageComputation.CompletionListener listener = (dir, usage, count) -> sink.accept(usage);
+        uc.addListener(root, listener);
+        for (int i = 0; i < listeners - 1; i++) {
+            // listeners on paths which don't exist still make the lookups more expensive
+            uc.addListener(i < directories.size() ? directories.get(i) : root.resolve("missing" + i), listener);
+        }
+        uc.setCompactWalker(strategy.equals("compact"));
+        if (strategy.equals("production")) {
+            uc.setCategorized(QuickDiskUsagePlugin.CATEGORIES);
+            uc.setIndex(index, QuickDiskUsagePlugin.INCREMENTAL ? QuickDiskUsagePlugin.INCREMENTAL_MAX_AGE : 0);
+            // the builds of the JENKINS tree are all completed
+            uc.setSealedDirectories(dir -> {
+                Path parent = dir.getParent();
+                return parent != null && parent.endsWith("builds");
+            }, QuickDiskUsagePlugin.COMPLETED_BUILDS_MAX_AGE);
+        } else if (index != null) {
+            uc.setIndex(index, TimeUnit.DAYS.toMillis(1));
+        }
+        switch (throttle) {
+            case "dutycycle":
+                uc.setThrottle(new IoThrottle.DutyCycle());
+                break;
+            case "dutycycle-overhead":
+                uc.setThrottle(new IoThrottle.DutyCycle() {
+                    @Override
+                    boolean pause(long entries, long busyNanos) {
+                        // never busy long enough to sleep
+                        return super.pause(entries, 0);
+                    }
+                });
+                break;
+            case "tokenbucket":
+                uc.setThrottle(new IoThrottle.TokenBucket(5000));
+                break;
+            case "tokenbucket-overhead":
+                uc.setThrottle(new IoThrottle.TokenBucket(Double.MAX_VALUE));
+                break;
+            default:
+                uc.setThrottle(new IoThrottle() {
+                    @Override
+                    boolean pause(long entries, long busyNanos) {
+                        return true;
+                    }
+                });
+        }
+        return uc;
+    }
+}
@@ -1,16 +1,36 @@
 package com.cloudbees.simplediskusage;
 
+import hudson.Functions;
+import hudson.model.FreeStyleProject;
+import hudson.slaves.DumbSlave;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 @WithJenkins
 class UsageComputationTest {
@@ -40,4 +60,635 @@ class UsageComputationTest {
         assertTrue(testUsage.get() >  0);
         assertTrue(testCount.get() > 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    void computeInParallel() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("parallel-test");
+        for (int i = 0; i < 5; i++) {
+            Path job = Files.createDirectories(root.resolve("jobs/job" + i + "/builds/1"));
+            Files.write(job.resolve("log"), new byte[1000 * (i + 1)]);
+            Files.write(job.getParent().getParent().resolve("config.xml"), new byte[100]);
+        }
+        Files.write(root.resolve("top.xml"), new byte[10]);
+
+        Map<Path, long[]> sequential = computeAll(root, 1);
+        Map<Path, long[]> parallel = computeAll(root, 4);
+
+        assertEquals(7, parallel.size());
+        for (Map.Entry<Path, long[]> e : sequential.entrySet()) {
+            assertTrue(parallel.containsKey(e.getKey()), "missing " + e.getKey());
+            assertEquals(e.getValue()[0], parallel.get(e.getKey())[0], "usage of " + e.getKey());
+            assertEquals(e.getValue()[1], parallel.get(e.getKey())[1], "count of " + e.getKey());
+        }
+        assertEquals(5 * 100 + 15000 + 10, parallel.get(root)[0]);
+        assertEquals(11, parallel.get(root)[1]);
+    }
+
+    @Test
+    void computeWithCompactWalker() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("compact-test");
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        for (int i = 0; i < 5; i++) {
+            Path job = Files.createDirectories(root.resolve("jobs/job" + i + "/builds/1/archive/a/b/c"));
+            Files.write(job.resolve("artifact"), new byte[1000 * (i + 1)]);
+            Files.write(root.resolve("jobs/job" + i + "/config.xml"), new byte[100]);
+            Files.setLastModifiedTime(root.resolve("jobs/job" + i + "/builds/1"), past);
+        }
+        Files.write(root.resolve("top.xml"), new byte[10]);
+
+        // as configured by the plugin scans: an index only trusted for the sealed builds
+        Predicate<Path> sealed = dir -> dir.getParent().getFileName().toString().equals("builds");
+        Map<Path, long[]> expected = computeAll(root, 1, null, sealed);
+        for (int parallelism : new int[] {1, 4}) {
+            DirectoryIndex index = new DirectoryIndex();
+            assertSameTotals(expected, computeAll(root, parallelism, index, sealed));
+            assertEquals(5, index.size());
+
+            // growing an artifact doesn't change the build directory, the second scan reuses the builds
+            Path artifact = root.resolve("jobs/job0/builds/1/archive/a/b/c/artifact");
+            Files.write(artifact, new byte[500], StandardOpenOption.APPEND);
+            assertSameTotals(expected, computeAll(root, parallelism, index, sealed));
+            Files.write(artifact, new byte[1000]);
+        }
+        assertEquals(5 * 100 + 15000 + 10, expected.get(root)[0]);
+    }
+
+    private static void assertSameTotals(Map<Path, long[]> expected, Map<Path, long[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<Path, long[]> e : expected.entrySet()) {
+            assertEquals(e.getValue()[0], actual.get(e.getKey())[0], "usage of " + e.getKey());
+            assertEquals(e.getValue()[1], actual.get(e.getKey())[1], "count of " + e.getKey());
+        }
+    }
+
+    @Test
+    void computeWithScanners() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("scanners-test").toAbsolutePath();
+        Random random = new Random(0);
+        for (int i = 0; i < 3; i++) {
+            Path build = Files.createDirectories(root.resolve("jobs/job" + i + "/builds/1"));
+            // random so compressing file systems don't shrink them for du
+            byte[] log = new byte[10000 * (i + 1)];
+            random.nextBytes(log);
+            Files.write(build.resolve("log"), log);
+        }
+        Path job = root.resolve("jobs/job0");
+
+        for (String id : List.of("jdk", "compact", "incremental", "parallel", "du")) {
+            if (id.equals("du") && Functions.isWindows()) {
+                continue;
+            }
+            UsageScanner scanner = UsageScanner.get(id);
+            Map<Path, long[]> results = new ConcurrentHashMap<>();
+            UsageComputation uc = new UsageComputation(List.of(root));
+            uc.setScanners(Map.of(root, scanner));
+            uc.addListener(root, (dir, usage, count) -> results.put(dir, new long[] {usage, count}));
+            uc.addListener(job, (dir, usage, count) -> results.put(dir, new long[] {usage, count}));
+            uc.compute();
+
+            if (id.equals("du")) {
+                // counts blocks rather than sizes, and no files
+                assertTrue(results.get(root)[0] >= 60000, id);
+                assertTrue(results.get(job)[0] >= 10000, id);
+            } else {
+                assertEquals(60000, results.get(root)[0], id);
+                assertEquals(3, results.get(root)[1], id);
+                assertEquals(10000, results.get(job)[0], id);
+            }
+        }
+    }
+
+    @Test
+    void nestedRootsAreWalkedOnce() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("plan-test");
+        Path nested = Files.createDirectories(root.resolve("tmp/sub"));
+        Files.write(nested.resolve("file"), new byte[100]);
+        Files.write(root.resolve("file"), new byte[10]);
+
+        Map<String, long[]> results = new ConcurrentHashMap<>();
+        ScanMetrics metrics = new ScanMetrics();
+        UsageComputation uc = new UsageComputation(List.of(root.resolve("tmp"), root, root.resolve("tmp/sub/..")));
+        uc.setMetrics(metrics);
+        uc.addListener(root, (dir, usage, count) -> results.put("root", new long[] {usage, count}));
+        uc.addListener(root.resolve("tmp"), (dir, usage, count) -> results.put("tmp", new long[] {usage, count}));
+        uc.addListener(root.resolve("./tmp"), (dir, usage, count) -> results.put("tmpdir", new long[] {usage, count}));
+        uc.compute();
+        metrics.finish();
+
+        assertEquals(3, uc.getItemsCount());
+        assertEquals(110, results.get("root")[0]);
+        assertEquals(100, results.get("tmp")[0]);
+        assertEquals(100, results.get("tmpdir")[0]);
+        assertEquals(2L, metrics.toJSON().getLong("files"));
+    }
+
+    @Test
+    void unchangedItemsAreWalkedLessOften() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("refresh-test").toAbsolutePath();
+        Path stable = Files.createDirectories(root.resolve("jobs/stable"));
+        Path busy = Files.createDirectories(root.resolve("jobs/busy"));
+        Files.write(stable.resolve("config.xml"), new byte[100]);
+
+        RefreshSchedule schedule = new RefreshSchedule(10, 40);
+        Set<Path> leaves = RefreshSchedule.getLeaves(List.of(root, stable, busy));
+        assertEquals(Set.of(stable, busy), leaves);
+        List<Set<Path>> skipped = new ArrayList<>();
+        for (long now = 0; now <= 90; now += 10) {
+            Files.write(busy.resolve("log" + now), new byte[10]);
+            Map<Path, long[]> fresh = schedule.getFresh(leaves, now);
+            skipped.add(fresh.keySet());
+            long scanStart = now;
+            UsageComputation uc = new UsageComputation(List.of(root));
+            uc.setKnownTotals(fresh);
+            for (Path leaf : leaves) {
+                uc.addListener(leaf, (dir, usage, count) -> schedule.completed(dir, usage, count, scanStart));
+            }
+            uc.compute();
+        }
+
+        // the unchanged job is walked at 0, 10, 20, 40 and 80, the delay doubling up to 40
+        assertEquals(List.of(Set.of(), Set.of(), Set.of(), Set.of(stable), Set.of(), Set.of(stable), Set.of(stable),
+                Set.of(stable), Set.of(), Set.of(stable)), skipped);
+
+        schedule.changed(stable.resolve("config.xml"));
+        assertEquals(Map.of(), schedule.getFresh(leaves, 100));
+    }
+
+    @Test
+    void computeIncrementally() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("incremental-test");
+        Path log = Files.createDirectories(root.resolve("jobs/job0/builds/1")).resolve("log");
+        Files.write(log, new byte[1000]);
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        for (Path p = log.getParent(); !p.equals(root.getParent()); p = p.getParent()) {
+            Files.setLastModifiedTime(p, past);
+        }
+
+        DirectoryIndex index = new DirectoryIndex();
+        assertEquals(1000, computeAll(root, index).get(root)[0]);
+        assertEquals(5, index.size());
+
+        // growing a file doesn't change its directory modification time, the index is trusted
+        Files.write(log, new byte[500], StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(log.getParent(), past);
+        assertEquals(1000, computeAll(root, index).get(root)[0]);
+
+        // adding a file does
+        Files.write(log.resolveSibling("build.xml"), new byte[10]);
+        long[] totals = computeAll(root, index).get(root);
+        assertEquals(1510, totals[0]);
+        assertEquals(2, totals[1]);
+    }
+
+    @Test
+    void computeWithSealedDirectories() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("sealed-test");
+        Path build = Files.createDirectories(root.resolve("builds/1"));
+        Path archive = Files.createDirectories(build.resolve("archive"));
+        Files.write(archive.resolve("artifact.zip"), new byte[1000]);
+        Files.setLastModifiedTime(build, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+
+        Predicate<Path> sealed = dir -> dir.equals(build);
+        DirectoryIndex index = new DirectoryIndex();
+        assertEquals(1000, computeAll(root, index, 0, sealed).get(root)[0]);
+
+        // the completed build is not walked again
+        Files.write(archive.resolve("other.zip"), new byte[500]);
+        assertEquals(1000, computeAll(root, index, 0, sealed).get(root)[0]);
+
+        // unless its directory changes
+        Files.write(build.resolve("build.xml"), new byte[10]);
+        assertEquals(1510, computeAll(root, index, 0, sealed).get(root)[0]);
+    }
+
+    @Test
+    void terminatedIncrementalWalkIsNotIndexed() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("terminated-test");
+        Files.write(Files.createDirectories(root.resolve("a")).resolve("file"), new byte[100]);
+        Files.write(Files.createDirectories(root.resolve("b")).resolve("file"), new byte[100]);
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        for (Path dir : List.of(root.resolve("a"), root.resolve("b"), root)) {
+            Files.setLastModifiedTime(dir, past);
+        }
+
+        DirectoryIndex index = new DirectoryIndex();
+        UsageComputation uc = new UsageComputation(List.of(root));
+        uc.setIndex(index, 60000);
+        uc.setThrottle(new IoThrottle() {
+            @Override
+            boolean pause(long entries, long busyNanos) {
+                // terminate the walk after the first directory
+                return false;
+            }
+        });
+        uc.addListener(root, (dir, usage, count) -> {});
+        uc.compute();
+        assertEquals(0, index.size());
+
+        long[] totals = computeAll(root, index).get(root);
+        assertEquals(200, totals[0]);
+        assertEquals(2, totals[1]);
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    void computeWithCategories() throws Exception {
+        Path job = j.jenkins.getRootDir().toPath().resolve("categories-test/jobs/job0");
+        Path build = Files.createDirectories(job.resolve("builds/1"));
+        Files.write(Files.createDirectories(build.resolve("archive/target")).resolve("app.zip"), new byte[1000]);
+        Files.write(build.resolve("log"), new byte[200]);
+        Files.write(build.resolve("junitResult.xml"), new byte[30]);
+        Files.write(Files.createDirectories(build.resolve("workflow")).resolve("1.xml"), new byte[50]);
+        Files.write(build.resolve("build.xml"), new byte[5]);
+        Files.write(job.resolve("config.xml"), new byte[10]);
+
+        for (String walker : new String[] {"jdk", "compact", "incremental"}) {
+            final long[][] notified = new long[1][];
+            UsageComputation uc = new UsageComputation(List.of(job));
+            uc.setCategorized(true);
+            uc.setCompactWalker(walker.equals("compact"));
+            if (walker.equals("incremental")) {
+                uc.setIndex(new DirectoryIndex(), 0);
+            }
+            uc.addListener(job, new UsageComputation.CompletionListener() {
+                @Override
+                public void onCompleted(Path dir, long usage, long count) {
+                }
+
+                @Override
+                public void onCompleted(Path dir, long usage, long count, long[] categories) {
+                    notified[0] = categories;
+                }
+            });
+            uc.compute();
+
+            long[] categories = notified[0];
+            assertEquals(UsageCategory.VECTOR_WIDTH, categories.length, walker);
+            assertEquals(1000, categories[2 * UsageCategory.ARCHIVE.ordinal()], walker);
+            assertEquals(1, categories[2 * UsageCategory.ARCHIVE.ordinal() + 1], walker);
+            assertEquals(200, categories[2 * UsageCategory.LOG.ordinal()], walker);
+            assertEquals(30, categories[2 * UsageCategory.JUNIT.ordinal()], walker);
+            assertEquals(50, categories[2 * UsageCategory.WORKFLOW.ordinal()], walker);
+            assertEquals(0, categories[2 * UsageCategory.STASHES.ordinal()], walker);
+        }
+    }
+
+    @Test
+    void computeWithAges() throws Exception {
+        long now = System.currentTimeMillis();
+        long day = 24 * 60 * 60 * 1000L;
+        Path job = j.jenkins.getRootDir().toPath().resolve("ages-test/jobs/job0");
+        Path build = Files.createDirectories(job.resolve("builds/1"));
+        long[] ages = {0, 3 * day, 10 * day, 60 * day, 400 * day};
+        for (int i = 0; i < ages.length; i++) {
+            Path file = Files.write(build.resolve(i + ".log"), new byte[100 << i]);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now - ages[i]));
+        }
+
+        for (String walker : new String[] {"jdk", "compact", "incremental"}) {
+            final long[][] notified = new long[1][];
+            UsageComputation uc = new UsageComputation(List.of(job));
+            uc.setCategorized(true);
+            uc.setCompactWalker(walker.equals("compact"));
+            if (walker.equals("incremental")) {
+                uc.setIndex(new DirectoryIndex(), 0);
+            }
+            uc.addListener(job, new UsageComputation.CompletionListener() {
+                @Override
+                public void onCompleted(Path dir, long usage, long count) {
+                }
+
+                @Override
+                public void onCompleted(Path dir, long usage, long count, long[] categories) {
+                    notified[0] = categories;
+                }
+            });
+            uc.compute();
+
+            long[] categories = notified[0];
+            for (UsageAge age : UsageAge.values()) {
+                int offset = UsageCategory.AGES + 2 * age.ordinal();
+                assertEquals(100 << age.ordinal(), categories[offset], walker + " " + age.getName());
+                assertEquals(1, categories[offset + 1], walker + " " + age.getName());
+            }
+        }
+    }
+
+    @Test
+    void computeLargest() throws Exception {
+        Path job = j.jenkins.getRootDir().toPath().resolve("largest-test/jobs/job0");
+        Path build = Files.createDirectories(job.resolve("builds/1"));
+        Files.write(build.resolve("java_pid1.hprof"), new byte[5000]);
+        Files.write(build.resolve("log"), new byte[100]);
+        Path logs = Files.createDirectories(job.resolve("logs"));
+        for (int i = 0; i < 5; i++) {
+            Files.write(logs.resolve(i + ".log"), new byte[10]);
+        }
+        Files.write(job.resolve("config.xml"), new byte[2000]);
+
+        for (String walker : new String[] {"jdk", "compact", "incremental", "parallel"}) {
+            UsageComputation uc = new UsageComputation(List.of(job));
+            uc.setCompactWalker(walker.equals("compact"));
+            if (walker.equals("incremental")) {
+                uc.setIndex(new DirectoryIndex(), 0);
+            }
+            uc.addListener(build, (dir, usage, count) -> {});
+            LargestEntries largest = new LargestEntries(2);
+            uc.setLargest(largest);
+            uc.compute(walker.equals("parallel") ? 2 : 1);
+
+            List<LargestEntries.Entry> files = largest.getFiles();
+            assertEquals(2, files.size(), walker);
+            assertEquals(build.resolve("java_pid1.hprof"), files.get(0).path, walker);
+            assertEquals(job.resolve("config.xml"), files.get(1).path, walker);
+            assertEquals(build, largest.getDirectoriesByUsage().get(0).path, walker);
+            assertEquals(5100, largest.getDirectoriesByUsage().get(0).usage, walker);
+            assertEquals(logs, largest.getDirectoriesByCount().get(0).path, walker);
+            assertEquals(5, largest.getDirectoriesByCount().get(0).count, walker);
+        }
+
+        // the completed build is not walked again, its largest file is ranked from the index, even once reloaded,
+        // and its directory is carried over from the previous scan
+        Files.setLastModifiedTime(build, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        File indexFile = j.jenkins.getRootDir().toPath().resolve("largest-test/index").toFile();
+        DirectoryIndex index = new DirectoryIndex();
+        LargestEntries previous = null;
+        for (int scan = 0; scan < 2; scan++) {
+            UsageComputation uc = new UsageComputation(List.of(job));
+            uc.setIndex(index, 0);
+            uc.setSealedDirectories(build::equals, Long.MAX_VALUE);
+            LargestEntries largest = new LargestEntries(2);
+            uc.setLargest(largest);
+            uc.compute();
+            if (previous != null) {
+                assertEquals(build.resolve("java_pid1.hprof"), largest.getFiles().get(0).path);
+                assertEquals(job.resolve("config.xml"), largest.getFiles().get(1).path);
+                largest.carryOver(previous);
+                assertEquals(build, largest.getDirectoriesByUsage().get(0).path);
+            }
+            previous = largest;
+            index.save(indexFile);
+            index = DirectoryIndex.load(indexFile);
+        }
+
+        // same when the build was walked by a build event, which doesn't rank
+        index = new DirectoryIndex();
+        UsageComputation event = new UsageComputation(List.of(build));
+        event.setIndex(index, 0);
+        event.setSealedDirectories(build::equals, Long.MAX_VALUE);
+        event.compute();
+        UsageComputation uc = new UsageComputation(List.of(job));
+        uc.setIndex(index, 0);
+        uc.setSealedDirectories(build::equals, Long.MAX_VALUE);
+        LargestEntries largest = new LargestEntries(2);
+        uc.setLargest(largest);
+        uc.compute();
+        assertEquals(build.resolve("java_pid1.hprof"), largest.getFiles().get(0).path);
+    }
+
+    @Test
+    void computeWithHardLinks() throws Exception {
+        assumeTrue(HardLinkTracker.isSupported(), "needs the unix attribute view");
+        Path root = j.jenkins.getRootDir().toPath().resolve("hardlinks-test");
+        Path artifact = Files.createDirectories(root.resolve("job1")).resolve("artifact.zip");
+        Files.write(artifact, new byte[10000]);
+        Files.createLink(Files.createDirectories(root.resolve("job2")).resolve("artifact.zip"), artifact);
+
+        Map<Path, long[]> results = new ConcurrentHashMap<>();
+        UsageComputation uc = new UsageComputation(List.of(root));
+        HardLinkTracker hardLinks = new HardLinkTracker();
+        uc.setHardLinks(hardLinks);
+        uc.addListener(root, (dir, usage, count) -> results.put(dir, new long[] {usage, count}));
+        uc.compute();
+
+        // counted once, rounded up to whole blocks
+        long usage = results.get(root)[0];
+        assertTrue(usage >= 10000 && usage < 20000, "unexpected usage " + usage);
+        assertEquals(2, results.get(root)[1]);
+
+        // sealed directories are walked again rather than reused with their links counted
+        DirectoryIndex index = new DirectoryIndex();
+        for (int i = 0; i < 2; i++) {
+            uc = new UsageComputation(List.of(root));
+            uc.setHardLinks(new HardLinkTracker());
+            uc.setIndex(index, 0);
+            uc.setSealedDirectories(dir -> root.equals(dir.getParent()), Long.MAX_VALUE);
+            uc.addListener(root, (dir, u, count) -> results.put(dir, new long[] {u, count}));
+            uc.compute();
+            assertEquals(usage, results.get(root)[0]);
+        }
+
+        // a walk after the scan doesn't count again the links it has seen
+        Path job2 = root.resolve("job2");
+        uc = new UsageComputation(List.of(job2));
+        uc.setHardLinks(new HardLinkTracker(hardLinks));
+        uc.addListener(job2, (dir, u, count) -> results.put(dir, new long[] {u, count}));
+        uc.compute();
+        assertEquals(0, results.get(job2)[0]);
+        assertEquals(1, results.get(job2)[1]);
+    }
+
+    @Test
+    void computeCollectsMetrics() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("metrics-test");
+        Files.createDirectories(root.resolve("a/b"));
+        Files.write(root.resolve("a/file1"), new byte[100]);
+        Files.write(root.resolve("a/b/file2"), new byte[200]);
+
+        ScanMetrics metrics = new ScanMetrics();
+        UsageComputation uc = new UsageComputation(List.of(root));
+        uc.setMetrics(metrics);
+        uc.compute();
+        metrics.finish();
+
+        var json = metrics.toJSON();
+        assertEquals(3L, json.getLong("directories"));
+        assertEquals(2L, json.getLong("files"));
+        assertEquals(300L, json.getLong("bytes"));
+        long stats = 0;
+        for (int i = 0; i < json.getJSONArray("statLatency").size(); i++) {
+            stats += json.getJSONArray("statLatency").getJSONObject(i).getLong("count");
+        }
+        assertEquals(5, stats);
+    }
+
+    @Test
+    void computeResumesFromCheckpoint() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("checkpoint-test");
+        Path walked = Files.createDirectories(root.resolve("walked"));
+        Files.write(walked.resolve("file"), new byte[100]);
+        Path other = Files.createDirectories(root.resolve("other"));
+        Files.write(other.resolve("file"), new byte[10]);
+
+        File file = new File(j.jenkins.getRootDir(), "checkpoint-test.bin");
+        ScanCheckpoint checkpoint = new ScanCheckpoint(file, 0);
+        checkpoint.completed(walked, new long[] {5000, 50});
+        checkpoint.save();
+        ScanCheckpoint loaded = ScanCheckpoint.load(file);
+
+        Map<Path, long[]> results = new ConcurrentHashMap<>();
+        UsageComputation uc = new UsageComputation(List.of(root));
+        uc.setKnownTotals(loaded.getCompleted(0));
+        UsageComputation.CompletionListener listener = (dir, usage, count) -> results.put(dir, new long[] {usage, count});
+        uc.addListener(root, listener);
+        uc.addListener(walked, listener);
+        uc.compute();
+
+        // the directory walked before the interruption is not walked again
+        assertEquals(5000, results.get(walked)[0]);
+        assertEquals(5010, results.get(root)[0]);
+        assertEquals(51, results.get(root)[1]);
+
+        // without its categories it is walked again by a categorized scan, so the categories of its parents add up
+        Map<Path, long[]> categories = new ConcurrentHashMap<>();
+        UsageComputation.CompletionListener categorizedListener = new UsageComputation.CompletionListener() {
+            @Override
+            public void onCompleted(Path dir, long usage, long count) {
+                fail("categories expected");
+            }
+
+            @Override
+            public void onCompleted(Path dir, long usage, long count, long[] vector) {
+                results.put(dir, new long[] {usage, count});
+                categories.put(dir, vector);
+            }
+        };
+        uc = new UsageComputation(List.of(root));
+        uc.setCategorized(true);
+        uc.setKnownTotals(loaded.getCompleted(0));
+        uc.addListener(root, categorizedListener);
+        uc.addListener(walked, categorizedListener);
+        uc.compute();
+        assertEquals(110, results.get(root)[0]);
+        assertEquals(110, ageUsage(categories.get(root)));
+
+        // with its categories, they are reused and aged since it was walked
+        long[] known = new long[2 + UsageCategory.VECTOR_WIDTH];
+        known[0] = 5000;
+        known[1] = 50;
+        known[2 + UsageCategory.AGES] = 5000;
+        known[2 + UsageCategory.AGES + 1] = 50;
+        checkpoint = new ScanCheckpoint(file, 0);
+        checkpoint.completed(walked, known);
+        checkpoint.save();
+        uc = new UsageComputation(List.of(root));
+        uc.setCategorized(true);
+        uc.setKnownTotals(ScanCheckpoint.load(file).getCompleted(System.currentTimeMillis()
+                + TimeUnit.DAYS.toMillis(400)));
+        uc.addListener(root, categorizedListener);
+        uc.addListener(walked, categorizedListener);
+        uc.compute();
+        assertEquals(5010, results.get(root)[0]);
+        assertEquals(5010, ageUsage(categories.get(root)));
+        assertEquals(0, categories.get(walked)[UsageCategory.AGES]);
+    }
+
+    private static long ageUsage(long[] categories) {
+        long usage = 0;
+        for (int i = UsageCategory.AGES; i < categories.length; i += 2) {
+            usage += categories[i];
+        }
+        return usage;
+    }
+
+    @Test
+    void cancelledComputeDoesNotNotify() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("cancel-test");
+        Files.write(Files.createDirectories(root.resolve("dir")).resolve("file"), new byte[100]);
+
+        AtomicBoolean notified = new AtomicBoolean();
+        UsageComputation uc = new UsageComputation(List.of(root));
+        uc.addListener(root, (dir, usage, count) -> notified.set(true));
+        uc.cancel();
+        uc.compute(2);
+
+        assertTrue(uc.isCancelled());
+        assertFalse(notified.get());
+    }
+
+    @Test
+    void pausedComputeResumes() throws Exception {
+        Path root = j.jenkins.getRootDir().toPath().resolve("pause-test");
+        Files.write(Files.createDirectories(root.resolve("dir")).resolve("file"), new byte[100]);
+
+        AtomicLong result = new AtomicLong(-1);
+        UsageComputation uc = new UsageComputation(List.of(root));
+        uc.addListener(root, (dir, usage, count) -> result.set(usage));
+        uc.setPaused(true);
+        Thread thread = new Thread(() -> {
+            try {
+                uc.compute();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        thread.start();
+        thread.join(2000);
+
+        assertTrue(uc.isPaused());
+        assertEquals(-1, result.get());
+        uc.setPaused(false);
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertEquals(100, result.get());
+    }
+
+    @Test
+    void workspacesAreMeasuredOnAgents() throws Exception {
+        DumbSlave agent = j.createOnlineSlave();
+        FreeStyleProject project = j.createFreeStyleProject("ws");
+        FreeStyleProject missing = j.createFreeStyleProject("missing");
+        Path workspace = Paths.get(agent.getWorkspaceFor(project).getRemote());
+        Files.write(Files.createDirectories(workspace).resolve("file"), new byte[1000]);
+        Files.write(Files.createDirectories(workspace.resolveSibling("ws@tmp")).resolve("file"), new byte[500]);
+        Files.write(Files.createDirectories(workspace.resolveSibling("ws2")).resolve("file"), new byte[300]);
+
+        long[][] totals = agent.getWorkspaceRoot().act(new WorkspaceUsageCallable(List.of(
+                workspace.toString(), agent.getWorkspaceFor(missing).getRemote())));
+
+        assertEquals(2, totals.length);
+        assertEquals(1500, totals[0][0]);
+        assertEquals(2, totals[0][1]);
+        assertNull(totals[1]);
+    }
+
+    private Map<Path, long[]> computeAll(Path root, DirectoryIndex index) throws Exception {
+        return computeAll(root, index, 60000, dir -> false);
+    }
+
+    private Map<Path, long[]> computeAll(Path root, DirectoryIndex index, long maxAge, Predicate<Path> sealed)
+            throws Exception {
+        Map<Path, long[]> results = new ConcurrentHashMap<>();
+        UsageComputation uc = new UsageComputation(List.of(root));
+        uc.setIndex(index, maxAge);
+        uc.setSealedDirectories(sealed, 60000);
+        uc.addListener(root, (dir, usage, count) -> results.put(dir, new long[] {usage, count}));
+        uc.compute();
+        return results;
+    }
+
+    private Map<Path, long[]> computeAll(Path root, int parallelism) throws Exception {
+        return computeAll(root, parallelism, null, dir -> false);
+    }
+
+    /**
+     * @param index the index to walk under with the compact walker, or null to walk with the JDK walker
+     */
+    private Map<Path, long[]> computeAll(Path root, int parallelism, DirectoryIndex index, Predicate<Path> sealed)
+            throws Exception {
+        Map<Path, long[]> results = new ConcurrentHashMap<>();
+        UsageComputation uc = new UsageComputation(List.of(root));
+        if (index != null) {
+            uc.setIndex(index, 0);
+            uc.setSealedDirectories(sealed, 60000);
+        }
+        UsageComputation.CompletionListener listener = (dir, usage, count) -> results.put(dir, new long[] {usage, count});
+        uc.addListener(root, listener);
+        uc.addListener(root.resolve("jobs"), listener);
+        for (int i = 0; i < 5; i++) {
+            uc.addListener(root.resolve("jobs/job" + i), listener);
+        }
+        uc.compute(parallelism);
+        return results;
+    }
+}
@@ -0,0 +1,97 @@
+package com.cloudbees.simplediskusage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates of the jobs usages, as done by scan listeners and build events, and reads of the API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UsageStoreBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int jobs;
+
+    private UsageStore<JobDiskItem> store;
+
+    private JobDiskItem[] items;
+
+    private final Comparator<DiskItem> order =
+            new UsageQuery(UsageQuery.Sort.USAGE, false, null, null, 0, Long.MAX_VALUE, 100, null).getOrder();
+
+    @Setup
+    public void createStore() {
+        store = new UsageStore<>();
+        items = new JobDiskItem[jobs];
+        for (int i = 0; i < jobs; i++) {
+            String name = "folder" + i % 100 + "/job" + i;
+            items[i] = new JobDiskItem(name, new File("/var/jenkins_home/jobs/" + name.replace("/", "/jobs/")),
+                    (long) i, (long) i, name, "job/" + name.replace("/", "/job/") + "/");
+            store.put(items[i]);
+        }
+    }
+
+    private JobDiskItem randomItem() {
+        return items[ThreadLocalRandom.current().nextInt(jobs)];
+    }
+
+    /**
+     * A job walked by a scan.
+     */
+    @Benchmark
+    public void put() {
+        store.put(randomItem());
+    }
+
+    /**
+     * A build completed, its usage is added to its job.
+     */
+    @Benchmark
+    public JobDiskItem update() {
+        return store.update(randomItem().getPath(), item -> item.withUsage(item.getUsage() + 1, item.getCount() + 1));
+    }
+
+    /**
+     * An API read while the store is updated, the snapshot has to be copied again.
+     */
+    @Benchmark
+    public List<JobDiskItem> updateThenSnapshot() {
+        store.put(randomItem());
+        return store.snapshot();
+    }
+
+    /**
+     * A query page while the store is updated, the sorted copy has to be rebuilt.
+     */
+    @Benchmark
+    public List<JobDiskItem> updateThenSorted() {
+        store.put(randomItem());
+        return store.sorted(order);
+    }
+
+    /**
+     * API reads between updates, the snapshot is shared.
+     */
+    @Benchmark
+    public List<JobDiskItem> snapshot() {
+        return store.snapshot();
+    }
+}
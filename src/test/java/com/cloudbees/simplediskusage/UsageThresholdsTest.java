@@ -0,0 +1,39 @@
+package com.cloudbees.simplediskusage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UsageThresholdsTest {
+
+    @Test
+    void thresholdAlertsHaveHysteresis() {
+        var thresholds = new UsageThresholds(UsageThresholds.parse("budget-job=1M, invalid"), 0, 0, 10);
+        assertEquals(1024L, UsageThresholds.parse("budget-job=1M").get("budget-job"));
+        File path = new File("jobs/budget-job");
+
+        thresholds.check(job(path, 1000L));
+        assertFalse(thresholds.hasAlerts());
+        thresholds.check(job(path, 1100L));
+        assertTrue(thresholds.hasAlerts());
+        assertEquals(1100L, thresholds.getAlerts().get(0).getUsage());
+        // still within the hysteresis
+        thresholds.check(job(path, 1000L));
+        assertTrue(thresholds.hasAlerts());
+        thresholds.check(job(path, 900L));
+        assertFalse(thresholds.hasAlerts());
+
+        thresholds.check(job(path, 2048L));
+        assertTrue(thresholds.hasAlerts());
+        thresholds.remove(path);
+        assertFalse(thresholds.hasAlerts());
+    }
+
+    private static JobDiskItem job(File path, long usage) {
+        return new JobDiskItem("budget-job", path, usage, 1L, "budget-job", "job/budget-job/");
+    }
+}